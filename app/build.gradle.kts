@@ -41,6 +41,7 @@ dependencies {
     implementation(libs.material)
     implementation(libs.activity)
     implementation(libs.constraintlayout)
+    implementation(libs.recyclerview)
     implementation(libs.roundedimageview)
     implementation(libs.firebase.messaging)
     implementation(libs.firebase.firestore)
@@ -0,0 +1,188 @@
+package com.example.cslab4.adapters;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Debug;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SdkSuppress;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.cslab4.R;
+import com.example.cslab4.databinding.ItemContainerSentMessageBinding;
+import com.example.cslab4.models.ChatMessage;
+import com.example.cslab4.models.User;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented test, which will execute on an Android device.
+ * Simulates scrolling through the chat and user lists by binding every position to a
+ * small pool of recycled view holders, and counts the objects allocated on the
+ * binding thread once every row has been shown once. Chat messages are measured
+ * up front like in ChatActivity, so binding takes the precomputed text path.
+ * Only the adapters' own bind code is measured: the rows are inflated with text views
+ * that keep their text without laying it out, since the framework's text layout
+ * allocates on every new text. The test is pinned to API 29 and later, where
+ * TextViewCompat.setPrecomputedText hands the text straight to the view; earlier
+ * versions build new text metrics on every call to verify them.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = Build.VERSION_CODES.Q)
+@SuppressWarnings("deprecation") // Allocation counting is only exposed through the deprecated Debug API
+public class AdapterBindAllocationTest {
+
+    private static final int ITEM_COUNT = 200;
+    // View holders per view type, as many as a screen would show
+    private static final int VISIBLE_ROWS = 12;
+    private static final String CURRENT_USER_ID = "me";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = new ContextThemeWrapper(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(), R.style.Theme_CSLab4);
+    }
+
+    @Test
+    public void chatAdapterScrollAllocatesNothing() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            ChatAdapter chatAdapter = new ChatAdapter(
+                    Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888), CURRENT_USER_ID);
+            // The text metrics of a message bubble, captured the same way as in ChatActivity
+            PrecomputedTextCompat.Params messageTextParams = TextViewCompat.getTextMetricsParams(
+                    ItemContainerSentMessageBinding.inflate(LayoutInflater.from(context)).textMessage);
+            List<ChatMessage> chatMessages = new ArrayList<>();
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                ChatMessage chatMessage = new ChatMessage();
+                chatMessage.id = "message" + i;
+                chatMessage.senderId = i % 3 == 0 ? CURRENT_USER_ID : "other";
+                chatMessage.receiverId = i % 3 == 0 ? "other" : CURRENT_USER_ID;
+                chatMessage.message = "Message number " + i;
+                chatMessage.precomputedMessage = PrecomputedTextCompat.create(chatMessage.message, messageTextParams);
+                chatMessage.timestamp = 1_700_000_000_000L + i * 60_000L;
+                chatMessages.add(chatMessage);
+            }
+            // The first submission is applied synchronously
+            chatAdapter.submitList(chatMessages);
+
+            assertEquals(0, countScrollAllocations(chatAdapter));
+        });
+    }
+
+    @Test
+    public void usersAdapterScrollAllocatesNothing() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            UsersAdapter usersAdapter = new UsersAdapter(user -> { });
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                User user = new User();
+                user.id = "user" + i;
+                user.name = "User " + i;
+                user.email = "user" + i + "@example.com";
+                users.add(user);
+            }
+            usersAdapter.submitList(users);
+
+            assertEquals(0, countScrollAllocations(usersAdapter));
+        });
+    }
+
+    /**
+     * Scrolls through the whole list once to warm up, then counts the allocations of a second scroll.
+     */
+    private <VH extends RecyclerView.ViewHolder> int countScrollAllocations(RecyclerView.Adapter<VH> adapter) {
+        RecyclerView parent = new RecyclerView(withStubTextViews(context));
+        parent.setLayoutManager(new LinearLayoutManager(context));
+        SparseArray<List<VH>> viewHolders = new SparseArray<>();
+        for (int position = 0; position < adapter.getItemCount(); position++) {
+            int viewType = adapter.getItemViewType(position);
+            if (viewHolders.get(viewType) == null) {
+                List<VH> pool = new ArrayList<>();
+                for (int i = 0; i < VISIBLE_ROWS; i++) {
+                    pool.add(adapter.onCreateViewHolder(parent, viewType));
+                }
+                viewHolders.put(viewType, pool);
+            }
+        }
+
+        scroll(adapter, viewHolders);
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        scroll(adapter, viewHolders);
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        return allocations;
+    }
+
+    /**
+     * Wraps a context so that layouts inflated through it create {@link StubTextView}s.
+     */
+    private static Context withStubTextViews(Context base) {
+        LayoutInflater inflater = LayoutInflater.from(base).cloneInContext(base);
+        inflater.setFactory2(new LayoutInflater.Factory2() {
+            @Override
+            public View onCreateView(View parent, String name, Context context, AttributeSet attrs) {
+                return onCreateView(name, context, attrs);
+            }
+
+            @Override
+            public View onCreateView(String name, Context context, AttributeSet attrs) {
+                return "TextView".equals(name) ? new StubTextView(context, attrs) : null;
+            }
+        });
+        return new ContextWrapper(base) {
+            @Override
+            public Object getSystemService(String name) {
+                return LAYOUT_INFLATER_SERVICE.equals(name) ? inflater : super.getSystemService(name);
+            }
+        };
+    }
+
+    /**
+     * Binds every position in order, recycling the view holders of each view type in turn.
+     */
+    private static <VH extends RecyclerView.ViewHolder> void scroll(RecyclerView.Adapter<VH> adapter,
+                                                                    SparseArray<List<VH>> viewHolders) {
+        for (int position = 0; position < adapter.getItemCount(); position++) {
+            List<VH> pool = viewHolders.get(adapter.getItemViewType(position));
+            adapter.onBindViewHolder(pool.get(position % VISIBLE_ROWS), position);
+        }
+    }
+
+    /**
+     * Text view that keeps the text it is given without laying it out.
+     */
+    private static class StubTextView extends TextView {
+        CharSequence boundText;
+
+        StubTextView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+
+        @Override
+        public void setText(CharSequence text, BufferType type) {
+            boundText = text;
+        }
+    }
+}
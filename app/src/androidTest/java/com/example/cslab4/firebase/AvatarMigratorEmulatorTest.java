@@ -0,0 +1,108 @@
+package com.example.cslab4.firebase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.cslab4.utilities.AvatarDiskCache;
+import com.example.cslab4.utilities.Constants;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Instrumented test, which will execute on an Android device against the Firestore emulator.
+ * Seeds user documents in every state the AvatarMigrator meets, runs it twice and
+ * checks that inline images move to the avatars collection exactly once, that every
+ * user gains a change time, and that migrated users are left alone.
+ * See the README for how to start the emulator and pass its address.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AvatarMigratorEmulatorTest {
+
+    // Base64 encoded image bytes; the migrator only moves them, it never decodes them
+    private static final String INLINE_IMAGE = "aW1hZ2U=";
+    private static final Timestamp MIGRATED_AT = new Timestamp(1000, 0);
+
+    private FirebaseFirestore database;
+
+    @Before
+    public void setUp() throws Exception {
+        database = FirestoreEmulator.connect();
+        FirestoreEmulator.deleteAll(database, database.collection(Constants.KEY_COLLECTION_USERS));
+        FirestoreEmulator.deleteAll(database, database.collection(Constants.KEY_COLLECTION_AVATARS));
+
+        Map<String, Object> inline = new HashMap<>();
+        inline.put(Constants.KEY_FNAME, "Alice");
+        inline.put(Constants.KEY_IMAGE, INLINE_IMAGE);
+        putUser("inline", inline);
+
+        Map<String, Object> withoutChangeTime = new HashMap<>();
+        withoutChangeTime.put(Constants.KEY_FNAME, "Bob");
+        putUser("withoutChangeTime", withoutChangeTime);
+
+        Map<String, Object> migrated = new HashMap<>();
+        migrated.put(Constants.KEY_FNAME, "Carol");
+        migrated.put(Constants.KEY_IMAGE_HASH, "carolHash");
+        migrated.put(Constants.KEY_UPDATED_AT, MIGRATED_AT);
+        putUser("migrated", migrated);
+    }
+
+    @Test
+    public void migrateTwiceMovesEveryInlineImageOnce() throws Exception {
+        AvatarMigrator migrator = new AvatarMigrator(database);
+
+        assertEquals(2, (int) Tasks.await(migrator.migrate()));
+        Timestamp inlineUpdatedAt = assertMigrated();
+
+        // Everything is migrated now, so the second run writes nothing
+        assertEquals(0, (int) Tasks.await(migrator.migrate()));
+        assertEquals(inlineUpdatedAt, assertMigrated());
+    }
+
+    /**
+     * Checks the migrated documents.
+     *
+     * @return Change time the inline user was given
+     */
+    private Timestamp assertMigrated() throws Exception {
+        String imageHash = AvatarDiskCache.hashOf(INLINE_IMAGE);
+        DocumentSnapshot inline = getUser("inline");
+        assertEquals(imageHash, inline.getString(Constants.KEY_IMAGE_HASH));
+        assertFalse(inline.contains(Constants.KEY_IMAGE));
+        assertEquals("Alice", inline.getString(Constants.KEY_FNAME));
+        assertNotNull(inline.getTimestamp(Constants.KEY_UPDATED_AT));
+        DocumentSnapshot avatar = Tasks.await(database.collection(Constants.KEY_COLLECTION_AVATARS)
+                .document(imageHash).get());
+        assertEquals(INLINE_IMAGE, avatar.getString(Constants.KEY_IMAGE));
+        assertEquals(1, Tasks.await(database.collection(Constants.KEY_COLLECTION_AVATARS).get()).size());
+
+        DocumentSnapshot withoutChangeTime = getUser("withoutChangeTime");
+        assertNotNull(withoutChangeTime.getTimestamp(Constants.KEY_UPDATED_AT));
+        assertNull(withoutChangeTime.getString(Constants.KEY_IMAGE_HASH));
+
+        DocumentSnapshot migrated = getUser("migrated");
+        assertEquals("carolHash", migrated.getString(Constants.KEY_IMAGE_HASH));
+        assertEquals(MIGRATED_AT, migrated.getTimestamp(Constants.KEY_UPDATED_AT));
+        return inline.getTimestamp(Constants.KEY_UPDATED_AT);
+    }
+
+    private void putUser(String userId, Map<String, Object> user) throws Exception {
+        Tasks.await(database.collection(Constants.KEY_COLLECTION_USERS).document(userId).set(user));
+    }
+
+    private DocumentSnapshot getUser(String userId) throws Exception {
+        return Tasks.await(database.collection(Constants.KEY_COLLECTION_USERS).document(userId).get());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.cslab4.firebase;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.List;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Connects instrumented tests to a local Firestore emulator.
+ * The emulator address is passed as the firestoreEmulatorHost instrumentation
+ * argument, for example 10.0.2.2:8080 from an Android emulator. Tests that need it are
+ * skipped when the argument is missing, so a plain connectedAndroidTest run never
+ * touches a real project. The emulator is reached through its own FirebaseApp, so the
+ * app's default Firestore instance stays untouched.
+ */
+final class FirestoreEmulator {
+
+    private static final String HOST_ARGUMENT = "firestoreEmulatorHost";
+    private static final String APP_NAME = "firestore-emulator";
+
+    // Largest number of writes in one batch
+    private static final int BATCH_SIZE = 500;
+
+    private static FirebaseFirestore database;
+
+    private FirestoreEmulator() {
+    }
+
+    /**
+     * Returns the Firestore instance connected to the emulator, skipping the calling
+     * test if no emulator address was passed.
+     *
+     * @return Firestore instance connected to the emulator
+     */
+    static synchronized FirebaseFirestore connect() {
+        String host = InstrumentationRegistry.getArguments().getString(HOST_ARGUMENT);
+        assumeTrue("Pass -e " + HOST_ARGUMENT + " host:port to run against the Firestore emulator",
+                host != null);
+        if (database == null) {
+            Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+            FirebaseApp app = FirebaseApp.initializeApp(context,
+                    FirebaseApp.getInstance().getOptions(), APP_NAME);
+            database = FirebaseFirestore.getInstance(app);
+            int separator = host.lastIndexOf(':');
+            database.useEmulator(host.substring(0, separator), Integer.parseInt(host.substring(separator + 1)));
+        }
+        return database;
+    }
+
+    /**
+     * Deletes every document matched by a query, so each test starts from known data.
+     *
+     * @param database Firestore instance connected to the emulator
+     * @param query Documents to delete, for example a whole collection
+     */
+    static void deleteAll(FirebaseFirestore database, Query query) throws Exception {
+        List<DocumentSnapshot> documents = Tasks.await(query.get()).getDocuments();
+        for (int start = 0; start < documents.size(); start += BATCH_SIZE) {
+            WriteBatch batch = database.batch();
+            for (DocumentSnapshot document : documents.subList(start,
+                    Math.min(start + BATCH_SIZE, documents.size()))) {
+                batch.delete(document.getReference());
+            }
+            Tasks.await(batch.commit());
+        }
+    }
+}
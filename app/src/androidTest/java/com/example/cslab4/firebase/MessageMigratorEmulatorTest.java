@@ -0,0 +1,158 @@
+package com.example.cslab4.firebase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.ConversationUtils;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test, which will execute on an Android device against the Firestore emulator.
+ * Seeds the legacy chat collection, runs the MessageMigrator twice and checks that
+ * every message is copied once with its ID and fields, and that the conversation
+ * summaries are backfilled without moving a newer summary back in time.
+ * See the README for how to start the emulator and pass its address.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageMigratorEmulatorTest {
+
+    private static final String ALICE = "alice";
+    private static final String BOB = "bob";
+    private static final String CAROL = "carol";
+
+    private FirebaseFirestore database;
+
+    @Before
+    public void setUp() throws Exception {
+        database = FirestoreEmulator.connect();
+        FirestoreEmulator.deleteAll(database, database.collection(Constants.KEY_COLLECTION_CHAT));
+        FirestoreEmulator.deleteAll(database, database.collection(Constants.KEY_COLLECTION_CONVERSATIONS));
+        FirestoreEmulator.deleteAll(database, database.collectionGroup(Constants.KEY_COLLECTION_MESSAGES));
+        FirestoreEmulator.deleteAll(database, database.collection(Constants.KEY_COLLECTION_USERS));
+
+        putUser(ALICE, "Alice", "Adams");
+        putUser(BOB, "Bob", "Brown");
+        putUser(CAROL, "Carol", "Clark");
+        putLegacyMessage("m1", ALICE, BOB, "Hi Bob", 1000);
+        putLegacyMessage("m2", BOB, ALICE, "Hi Alice", 2000);
+        putLegacyMessage("m3", CAROL, ALICE, "Hello", 1500);
+        Map<String, Object> withoutReceiver = new HashMap<>();
+        withoutReceiver.put(Constants.KEY_SENDER_ID, ALICE);
+        withoutReceiver.put(Constants.KEY_MESSAGE, "Lost");
+        Tasks.await(database.collection(Constants.KEY_COLLECTION_CHAT).document("m4").set(withoutReceiver));
+
+        // A summary already written by a newer message must keep its last message
+        Map<String, Object> newerSummary = new HashMap<>();
+        newerSummary.put(Constants.KEY_PARTICIPANTS, ConversationUtils.getParticipants(ALICE, CAROL));
+        newerSummary.put(Constants.KEY_LAST_MESSAGE, "Newer");
+        newerSummary.put(Constants.KEY_LAST_SENDER_ID, ALICE);
+        newerSummary.put(Constants.KEY_LAST_TIMESTAMP, new Timestamp(5000, 0));
+        Tasks.await(summaryOf(ALICE, CAROL).set(newerSummary));
+    }
+
+    @Test
+    public void migrateTwiceCopiesEveryMessageOnce() throws Exception {
+        MessageMigrator migrator = new MessageMigrator(database);
+
+        assertEquals(3, (int) Tasks.await(migrator.migrate()));
+        assertMigrated();
+
+        // Copies keep their IDs, so running again rewrites the same documents
+        assertEquals(3, (int) Tasks.await(migrator.migrate()));
+        assertMigrated();
+    }
+
+    @Test
+    public void migrateResumesAfterMessage() throws Exception {
+        MessageMigrator migrator = new MessageMigrator(database);
+
+        assertEquals(2, (int) Tasks.await(migrator.migrate("m1")));
+        assertFalse(Tasks.await(ConversationMessages.collectionOf(database, conversationOf(ALICE, BOB))
+                .document("m1").get()).exists());
+
+        assertEquals(3, (int) Tasks.await(migrator.migrate()));
+        assertMigrated();
+    }
+
+    private void assertMigrated() throws Exception {
+        List<DocumentSnapshot> aliceAndBob = Tasks.await(ConversationMessages
+                .collectionOf(database, conversationOf(ALICE, BOB)).get()).getDocuments();
+        assertEquals(2, aliceAndBob.size());
+        assertCopied("m1", ALICE, BOB, "Hi Bob", 1000);
+        assertCopied("m2", BOB, ALICE, "Hi Alice", 2000);
+        List<DocumentSnapshot> aliceAndCarol = Tasks.await(ConversationMessages
+                .collectionOf(database, conversationOf(ALICE, CAROL)).get()).getDocuments();
+        assertEquals(1, aliceAndCarol.size());
+        assertCopied("m3", CAROL, ALICE, "Hello", 1500);
+
+        DocumentSnapshot summary = Tasks.await(summaryOf(ALICE, BOB).get());
+        assertEquals(ConversationUtils.getParticipants(ALICE, BOB), summary.get(Constants.KEY_PARTICIPANTS));
+        assertEquals("Hi Alice", summary.getString(Constants.KEY_LAST_MESSAGE));
+        assertEquals(BOB, summary.getString(Constants.KEY_LAST_SENDER_ID));
+        assertEquals(new Timestamp(2000, 0), summary.getTimestamp(Constants.KEY_LAST_TIMESTAMP));
+        assertEquals("Alice Adams", summary.getString(Constants.KEY_PARTICIPANT_NAMES + "." + ALICE));
+        assertEquals("Bob Brown", summary.getString(Constants.KEY_PARTICIPANT_NAMES + "." + BOB));
+
+        DocumentSnapshot newerSummary = Tasks.await(summaryOf(ALICE, CAROL).get());
+        assertEquals("Newer", newerSummary.getString(Constants.KEY_LAST_MESSAGE));
+        assertEquals(new Timestamp(5000, 0), newerSummary.getTimestamp(Constants.KEY_LAST_TIMESTAMP));
+        assertEquals("Carol Clark", newerSummary.getString(Constants.KEY_PARTICIPANT_NAMES + "." + CAROL));
+
+        // The legacy collection stays in place for the dual-read period
+        assertEquals(4, Tasks.await(database.collection(Constants.KEY_COLLECTION_CHAT).get()).size());
+        assertEquals(2, Tasks.await(database.collection(Constants.KEY_COLLECTION_CONVERSATIONS).get()).size());
+    }
+
+    private void assertCopied(String messageId, String senderId, String receiverId, String message,
+                              long seconds) throws Exception {
+        DocumentSnapshot copy = Tasks.await(ConversationMessages
+                .collectionOf(database, conversationOf(senderId, receiverId)).document(messageId).get());
+        assertTrue(copy.exists());
+        assertEquals(senderId, copy.getString(Constants.KEY_SENDER_ID));
+        assertEquals(receiverId, copy.getString(Constants.KEY_RECEIVER_ID));
+        assertEquals(message, copy.getString(Constants.KEY_MESSAGE));
+        assertEquals(new Timestamp(seconds, 0), copy.getTimestamp(Constants.KEY_TIMESTAMP));
+    }
+
+    private void putUser(String userId, String firstName, String lastName) throws Exception {
+        Map<String, Object> user = new HashMap<>();
+        user.put(Constants.KEY_FNAME, firstName);
+        user.put(Constants.KEY_LNAME, lastName);
+        Tasks.await(database.collection(Constants.KEY_COLLECTION_USERS).document(userId).set(user));
+    }
+
+    private void putLegacyMessage(String messageId, String senderId, String receiverId, String message,
+                                  long seconds) throws Exception {
+        Map<String, Object> document = new HashMap<>();
+        document.put(Constants.KEY_SENDER_ID, senderId);
+        document.put(Constants.KEY_RECEIVER_ID, receiverId);
+        document.put(Constants.KEY_MESSAGE, message);
+        document.put(Constants.KEY_TIMESTAMP, new Timestamp(seconds, 0));
+        Tasks.await(database.collection(Constants.KEY_COLLECTION_CHAT).document(messageId).set(document));
+    }
+
+    private DocumentReference summaryOf(String firstUserId, String secondUserId) {
+        return database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .document(conversationOf(firstUserId, secondUserId));
+    }
+
+    private static String conversationOf(String firstUserId, String secondUserId) {
+        return ConversationUtils.getConversationId(firstUserId, secondUserId);
+    }
+}
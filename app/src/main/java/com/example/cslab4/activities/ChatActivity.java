@@ -1,55 +1,87 @@
 package com.example.cslab4.activities;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
-import android.util.Base64;
+import android.util.Log;
 import android.view.View;
 
 import androidx.activity.EdgeToEdge;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
+import androidx.core.text.PrecomputedTextCompat;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.cslab4.R;
 import com.example.cslab4.adapters.ChatAdapter;
+import com.example.cslab4.database.MessageStore;
 import com.example.cslab4.databinding.ActivityChatBinding;
+import com.example.cslab4.databinding.ItemContainerSentMessageBinding;
+import com.example.cslab4.firebase.ConversationMessages;
+import com.example.cslab4.firebase.MessageNotifier;
+import com.example.cslab4.firebase.MessageOutbox;
+import com.example.cslab4.firebase.SnapshotSubscription;
+import com.example.cslab4.firebase.UserRepository;
+import com.example.cslab4.listeners.OutboxListener;
+import com.example.cslab4.listeners.QueryObserver;
 import com.example.cslab4.models.ChatMessage;
 import com.example.cslab4.models.User;
+import com.example.cslab4.utilities.AppExecutors;
+import com.example.cslab4.utilities.AvatarCache;
 import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.ConversationStream;
+import com.example.cslab4.utilities.ConversationUtils;
 import com.example.cslab4.utilities.PreferenceManager;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.DocumentChange;
-import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
 
 /**
  * Activity class that handles the chat interface between two users.
  * Manages real-time messaging using Firebase Firestore and displays chat history.
  */
-public class ChatActivity extends AppCompatActivity {
+public class ChatActivity extends AppCompatActivity implements OutboxListener {
+
+    private static final String TAG = "ChatActivity";
 
     private ActivityChatBinding binding;
     private User receiverUser;
-    private List<ChatMessage> chatMessages;
+    private ConversationStream conversationStream;
     private ChatAdapter chatAdapter;
     private PreferenceManager preferenceManager;
     private FirebaseFirestore database;
+    private MessageStore messageStore;
+    private MessageOutbox messageOutbox;
+    private PrecomputedTextCompat.Params messageTextParams;
+    private String conversationId;
+    private ConversationMessages conversationMessages;
+    // Timestamp up to which the stored conversation matched Firestore when the chat opened
+    private long syncedUntil = 0;
+    // Timestamp after which the legacy live tail starts when it has no cursor
+    private long legacyTailSince = 0;
+    private boolean hasOlderMessages = true;
+    private boolean isLoadingOlderMessages = false;
+
+    // Number of messages fetched per page of history
+    private static final int MESSAGE_PAGE_SIZE = ConversationMessages.PAGE_SIZE;
+    // Load the previous page once the first visible message is this close to the top
+    private static final int LOAD_MORE_THRESHOLD = 5;
 
     /**
      * Initializes the chat activity and sets up the user interface.
-     * Loads receiver details, initializes listeners, and starts message listening.
+     * Loads receiver details, initializes listeners, renders stored messages,
+     * and then starts message listening.
      *
      * @param savedInstanceState Bundle containing the activity's previously saved state
      */
@@ -61,7 +93,7 @@ public class ChatActivity extends AppCompatActivity {
         loadReceiverDetails();
         setListeners();
         init();
-        ListenMessage();
+        loadCachedMessages();
     }
 
     /**
@@ -71,133 +103,656 @@ public class ChatActivity extends AppCompatActivity {
     private void init() {
         // Initialize preference manager for user data storage
         preferenceManager = new PreferenceManager((getApplicationContext()));
-        // Create list to store chat messages
-        chatMessages = new ArrayList<>();
         // Initialize chat adapter with user details
         chatAdapter = new ChatAdapter(
-                chatMessages,
-                getBitmapFromEncodedString(receiverUser.image),
+                null,
                 preferenceManager.getString(Constants.KEY_USER_ID)
         );
+        // Show the receiver's profile once the shared repository has it
+        UserRepository.getInstance().load(getApplicationContext(), receiverUser.id, this::showReceiverProfile);
         // Set up RecyclerView with adapter
         binding.chatRecyclerView.setAdapter(chatAdapter);
+        // Capture the text metrics of a message bubble for measuring bodies in the background
+        messageTextParams = TextViewCompat.getTextMetricsParams(
+                ItemContainerSentMessageBinding.inflate(getLayoutInflater()).textMessage);
+        // Merge both directions of the conversation into one ordered sequence
+        conversationStream = new ConversationStream();
         // Initialize Firebase instance
         database = FirebaseFirestore.getInstance();
+        // Open the local message store for this conversation
+        messageStore = new MessageStore(getApplicationContext());
+        conversationId = ConversationUtils.getConversationId(
+                preferenceManager.getString(Constants.KEY_USER_ID), receiverUser.id);
+        conversationMessages = new ConversationMessages(database,
+                preferenceManager.getString(Constants.KEY_USER_ID), receiverUser.id);
+        // Track outgoing messages and resume sends left over from an earlier session
+        messageOutbox = MessageOutbox.getInstance(getApplicationContext());
+        messageOutbox.addListener(this);
+        messageOutbox.flush();
+        markConversationRead();
+    }
+
+    /**
+     * Removes this conversation's notification and suppresses new ones while the chat is on screen.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        MessageNotifier.getInstance(getApplicationContext()).setForegroundConversation(conversationId);
+    }
+
+    /**
+     * Lets this conversation's notifications through again once the chat leaves the screen.
+     */
+    @Override
+    protected void onPause() {
+        MessageNotifier.getInstance(getApplicationContext()).clearForegroundConversation(conversationId);
+        super.onPause();
+    }
+
+    /**
+     * Stops observing the outbox when the activity is destroyed.
+     */
+    @Override
+    protected void onDestroy() {
+        messageOutbox.removeListener(this);
+        super.onDestroy();
     }
 
     /**
      * Sends a new message to the chat.
-     * Creates a message object with sender, receiver, content, and timestamp,
-     * then stores it in Firebase Firestore.
+     * Creates a message with a client-generated document ID, shows it right away
+     * in a pending state, and hands it to the outbox, which stores it locally
+     * and sends it to Firebase Firestore.
      */
     private void sendMessages() {
         // Create message data structure
-        HashMap<String, Object> message = new HashMap<>();
-        message.put(Constants.KEY_SENDER_ID, preferenceManager.getString(Constants.KEY_USER_ID));
-        message.put(Constants.KEY_RECEIVER_ID, receiverUser.id);
-        message.put(Constants.KEY_MESSAGE, binding.inputMessage.getText().toString());
-        message.put(Constants.KEY_TIMESTAMP, new Date());
-
-        // Store message in Firebase
-        database.collection(Constants.KEY_COLLECTION_CHAT).add(message);
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = messageOutbox.newMessageId();
+        chatMessage.senderId = preferenceManager.getString(Constants.KEY_USER_ID);
+        chatMessage.receiverId = receiverUser.id;
+        chatMessage.message = binding.inputMessage.getText().toString();
+        chatMessage.timestamp = System.currentTimeMillis();
+        chatMessage.isPending = true;
+
+        // Queue message for sending and render it optimistically
+        messageOutbox.send(conversationId, chatMessage, getCurrentUserName(), receiverUser.name);
+        onMessagesChanged(Collections.singletonList(chatMessage), Collections.emptyList());
         // Clear input field after sending
         binding.inputMessage.setText(null);
     }
 
     /**
-     * Sets up real-time listeners for incoming and outgoing messages.
-     * Monitors Firebase Firestore for changes in the chat collection
-     * filtered by sender and receiver IDs.
+     * Builds the signed-in user's display name from the stored name parts.
+     *
+     * @return Full name of the current user
+     */
+    private String getCurrentUserName() {
+        String firstName = preferenceManager.getString(Constants.KEY_FNAME);
+        String lastName = preferenceManager.getString(Constants.KEY_LNAME);
+        return ((firstName != null ? firstName : "") + " " + (lastName != null ? lastName : "")).trim();
+    }
+
+    /**
+     * Resets the current user's unread count when the chat opens, if it is above zero.
+     * The summary is read first, so opening a read conversation writes nothing.
+     */
+    private void markConversationRead() {
+        String unreadCountField = Constants.KEY_UNREAD_COUNT + "." + preferenceManager.getString(Constants.KEY_USER_ID);
+        database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .document(conversationId)
+                .get()
+                .addOnSuccessListener(summary -> {
+                    Long unreadCount = summary.getLong(unreadCountField);
+                    if (summary.exists() && unreadCount != null && unreadCount > 0) {
+                        resetUnreadCount();
+                    }
+                });
+    }
+
+    /**
+     * Sets the current user's unread count in the conversation summary to zero.
+     * Uses update(), so no summary is created for a conversation without one;
+     * the update then fails and is ignored.
+     */
+    private void resetUnreadCount() {
+        database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .document(conversationId)
+                .update(Constants.KEY_UNREAD_COUNT + "." + preferenceManager.getString(Constants.KEY_USER_ID), 0)
+                .addOnFailureListener(e -> Log.w(TAG, "Unable to reset the unread count", e));
+    }
+
+    /**
+     * Clears the pending state of messages the outbox has sent.
+     *
+     * @param messageIds Document IDs of the confirmed messages
+     */
+    @Override
+    public void onMessagesSent(List<String> messageIds) {
+        boolean changed = false;
+        for (String messageId : messageIds) {
+            ChatMessage pendingMessage = conversationStream.get(messageId);
+            if (pendingMessage == null || !pendingMessage.isPending) {
+                continue;
+            }
+            ChatMessage sentMessage = copyOf(pendingMessage);
+            sentMessage.isPending = false;
+            conversationStream.update(sentMessage);
+            changed = true;
+        }
+        if (changed) {
+            submitMessages(false);
+        }
+    }
+
+    /**
+     * Shows messages the outbox gave up on as not sent.
+     *
+     * @param messageIds Document IDs of the rejected messages
+     */
+    @Override
+    public void onMessagesFailed(List<String> messageIds) {
+        boolean changed = false;
+        for (String messageId : messageIds) {
+            ChatMessage pendingMessage = conversationStream.get(messageId);
+            if (pendingMessage == null || !pendingMessage.isPending) {
+                continue;
+            }
+            ChatMessage failedMessage = copyOf(pendingMessage);
+            failedMessage.isPending = false;
+            failedMessage.isFailed = true;
+            conversationStream.update(failedMessage);
+            changed = true;
+        }
+        if (changed) {
+            submitMessages(false);
+        }
+    }
+
+    /**
+     * Creates a copy of a message, so a message already handed to the adapter
+     * is never modified in place.
+     *
+     * @param chatMessage Message to copy
+     * @return Copy of the message
+     */
+    private static ChatMessage copyOf(ChatMessage chatMessage) {
+        ChatMessage copy = new ChatMessage();
+        copy.id = chatMessage.id;
+        copy.senderId = chatMessage.senderId;
+        copy.receiverId = chatMessage.receiverId;
+        copy.message = chatMessage.message;
+        copy.precomputedMessage = chatMessage.precomputedMessage;
+        copy.timestamp = chatMessage.timestamp;
+        copy.isPending = chatMessage.isPending;
+        copy.isFailed = chatMessage.isFailed;
+        return copy;
+    }
+
+    /**
+     * Renders the newest messages of the conversation from the local store, then starts
+     * syncing. Runs the disk read in the background so the screen opens without
+     * waiting for the network, including while offline.
+     * A conversation synced before only subscribes to the messages newer than its
+     * high-water mark; everything older is rendered and paged from the store, so
+     * reopening a long chat downloads only what was missed since it was last open.
+     * A conversation that was never synced first loads its newest page from Firestore.
+     */
+    private void loadCachedMessages() {
+        AppExecutors.getInstance().diskIO().execute(() -> {
+            List<ChatMessage> cachedMessages =
+                    messageStore.getLatestMessages(conversationId, MESSAGE_PAGE_SIZE);
+            long highWaterMark = messageStore.getHighWaterMark(conversationId);
+            precomputeMessages(cachedMessages);
+            AppExecutors.getInstance().mainThread().execute(() -> {
+                if (!cachedMessages.isEmpty()) {
+                    addMessages(cachedMessages);
+                    submitMessages(true);
+                    showMessages();
+                }
+                if (cachedMessages.isEmpty() || highWaterMark == 0) {
+                    ListenMessage();
+                    return;
+                }
+                syncedUntil = highWaterMark;
+                legacyTailSince = highWaterMark;
+                bindLiveTails(null, null);
+            });
+        });
+    }
+
+    /**
+     * Loads the newest page of the conversation, then sets up a real-time listener
+     * for messages newer than that page. Only the live tail is listened to,
+     * so time-to-first-message does not depend on the length of the conversation.
+     * The listener is bound to the activity's lifecycle: it is paused while the chat
+     * is not visible, resumes after the newest message seen, and is removed for good
+     * when the activity is destroyed.
      */
     private void ListenMessage() {
-        // Listen for messages sent by current user
-        database.collection(Constants.KEY_COLLECTION_CHAT)
-                .whereEqualTo(Constants.KEY_SENDER_ID,
-                        preferenceManager.getString(Constants.KEY_USER_ID))
-                .whereEqualTo(Constants.KEY_RECEIVER_ID, receiverUser.id)
-                .addSnapshotListener(eventListener);
+        conversationMessages.getLatest(MESSAGE_PAGE_SIZE)
+                .addOnCompleteListener(AppExecutors.getInstance().background(), task -> {
+                    // Decode the page in the background, then hand it to the UI thread
+                    List<DocumentSnapshot> documents = task.isSuccessful() ? task.getResult() : null;
+                    List<ChatMessage> newestPage = documents != null ? toChatMessages(documents) : null;
+                    long confirmedUntil = documents != null ? ConversationMessages.confirmedUntil(documents, false) : 0;
+                    AppExecutors.getInstance().mainThread().execute(() -> {
+                        DocumentSnapshot newestLoaded = null;
+                        DocumentSnapshot newestLegacyLoaded = null;
+                        if (newestPage != null) {
+                            // Count documents, so a skipped malformed one does not end the history
+                            hasOlderMessages = documents.size() == MESSAGE_PAGE_SIZE;
+                            storeNewestPage(newestPage, !hasOlderMessages, confirmedUntil);
+                            // Documents only serve as a cursor into their own collection
+                            newestLoaded = SnapshotSubscription.newestCommitted(
+                                    conversationMessages.inSubcollection(documents));
+                            newestLegacyLoaded = SnapshotSubscription.newestCommitted(
+                                    conversationMessages.inLegacyCollection(documents));
+                            if (!newestPage.isEmpty()) {
+                                legacyTailSince = newestPage.get(newestPage.size() - 1).timestamp;
+                            }
+                        }
+                        // Listen only for messages after the newest one already loaded
+                        bindLiveTails(newestLoaded, newestLegacyLoaded);
+                        showMessages();
+                    });
+                });
+    }
+
+    /**
+     * Binds the live tail of the subcollection and, during the dual-read period, the live
+     * tail of the legacy collection, where peers on older builds still write.
+     * Only the subcollection tail raises the high-water mark.
+     *
+     * @param newestLoaded Newest subcollection message already loaded, or null
+     * @param newestLegacyLoaded Newest legacy message already loaded, or null
+     */
+    private void bindLiveTails(DocumentSnapshot newestLoaded, DocumentSnapshot newestLegacyLoaded) {
+        SnapshotSubscription.bind(this, "conversations/" + conversationId + "/messages/tail",
+                newestLoaded, this::liveQueryAfter, messageObserver);
+        if (conversationMessages.readsLegacyMessages()) {
+            SnapshotSubscription.bind(this, "chat/" + conversationId + "/tail",
+                    newestLegacyLoaded, this::legacyLiveQueryAfter, legacyMessageObserver);
+        }
+    }
+
+    /**
+     * Builds the live query for the legacy messages after a given message.
+     * Without a message, the query starts after the newest message already shown.
+     *
+     * @param after Newest legacy message document already seen, or null
+     * @return Query over the newer legacy messages
+     */
+    private Query legacyLiveQueryAfter(DocumentSnapshot after) {
+        Query query = conversationMessages.legacyQuery();
+        if (after != null) {
+            return query.startAfter(after);
+        }
+        return legacyTailSince > 0
+                ? query.whereGreaterThan(Constants.KEY_TIMESTAMP, new Date(legacyTailSince))
+                : query;
+    }
+
+    /**
+     * Builds the live query for the messages after a given message.
+     * Without a message, the query starts after the high-water mark the chat opened with.
+     *
+     * @param after Newest message document already seen, or null to start at the mark
+     * @return Query over the newer messages
+     */
+    private Query liveQueryAfter(DocumentSnapshot after) {
+        Query query = conversationMessages.query();
+        if (syncedUntil > 0) {
+            query = query.whereGreaterThan(Constants.KEY_TIMESTAMP, new Date(syncedUntil));
+        }
+        return after != null ? query.startAfter(after) : query;
+    }
+
+    /**
+     * Writes the newest page from the network through into the local store,
+     * which also raises the conversation's high-water mark. If the page does not
+     * overlap what was stored, the store drops the older messages and the screen
+     * drops the same range, keeping messages that arrived live or are still pending.
+     *
+     * @param newestPage Newest messages from Firestore in ascending timestamp order
+     * @param isCompleteConversation true if the page holds the whole conversation
+     * @param confirmedUntil Timestamp of the page's newest confirmed message, or 0
+     */
+    private void storeNewestPage(List<ChatMessage> newestPage, boolean isCompleteConversation,
+                                 long confirmedUntil) {
+        AppExecutors.getInstance().diskIO().execute(() -> {
+            boolean isContiguous = messageStore.putNewestPage(conversationId, newestPage,
+                    isCompleteConversation, confirmedUntil);
+            long removeBefore = isContiguous ? 0 : newestPage.get(0).timestamp;
+            AppExecutors.getInstance().mainThread().execute(() -> {
+                if (removeBefore > 0) {
+                    // Drop the same stale history the store dropped; live and pending messages stay
+                    conversationStream.removeBefore(removeBefore);
+                }
+                addMessages(newestPage);
+                submitMessages(true);
+            });
+        });
+    }
+
+    /**
+     * Loads the page of messages immediately before the oldest one loaded so far.
+     * Reads the local store first and only goes to Firestore once the stored
+     * history is exhausted. Does nothing while a page is already loading
+     * or once the start of the conversation has been reached.
+     */
+    private void loadOlderMessages() {
+        ChatMessage oldestMessage = conversationStream.getOldestMessage();
+        if (isLoadingOlderMessages || !hasOlderMessages || oldestMessage == null) {
+            return;
+        }
+        isLoadingOlderMessages = true;
+        long before = oldestMessage.timestamp;
+        String beforeMessageId = oldestMessage.id;
+        AppExecutors.getInstance().diskIO().execute(() -> {
+            List<ChatMessage> cachedMessages =
+                    messageStore.getMessagesBefore(conversationId, before, beforeMessageId, MESSAGE_PAGE_SIZE);
+            precomputeMessages(cachedMessages);
+            AppExecutors.getInstance().mainThread().execute(() -> {
+                if (cachedMessages.isEmpty()) {
+                    loadOlderMessagesFromNetwork(before, beforeMessageId);
+                    return;
+                }
+                isLoadingOlderMessages = false;
+                addMessages(cachedMessages);
+                submitMessages(false);
+            });
+        });
+    }
+
+    /**
+     * Fetches the page of messages before the given message from Firestore
+     * and writes it through into the local store.
+     *
+     * @param before Timestamp of the oldest loaded message in epoch milliseconds
+     * @param beforeMessageId Document ID of the oldest loaded message
+     */
+    private void loadOlderMessagesFromNetwork(long before, String beforeMessageId) {
+        conversationMessages.getBefore(before, beforeMessageId, MESSAGE_PAGE_SIZE)
+                .addOnCompleteListener(AppExecutors.getInstance().background(), task -> {
+                    List<ChatMessage> olderMessages = task.isSuccessful()
+                            ? toChatMessages(task.getResult()) : null;
+                    int pageSize = task.isSuccessful() ? task.getResult().size() : 0;
+                    AppExecutors.getInstance().mainThread().execute(() -> {
+                        isLoadingOlderMessages = false;
+                        if (olderMessages != null) {
+                            hasOlderMessages = pageSize == MESSAGE_PAGE_SIZE;
+                            persistMessages(olderMessages);
+                            addMessages(olderMessages);
+                            submitMessages(false);
+                        }
+                    });
+                });
+    }
 
-        // Listen for messages received by current user
-        database.collection(Constants.KEY_COLLECTION_CHAT)
-                .whereEqualTo(Constants.KEY_SENDER_ID,
-                        receiverUser.id)
-                .whereEqualTo(Constants.KEY_RECEIVER_ID,
-                        preferenceManager.getString(Constants.KEY_USER_ID))
-                .addSnapshotListener(eventListener);
+    /**
+     * Adds messages to the conversation stream.
+     *
+     * @param chatMessages Messages to add
+     */
+    private void addMessages(List<ChatMessage> chatMessages) {
+        for (ChatMessage chatMessage : chatMessages) {
+            conversationStream.add(chatMessage);
+        }
     }
 
     /**
-     * Event listener for handling real-time message updates from Firebase.
-     * Processes new messages, updates the UI, and handles message sorting.
+     * Writes messages received from Firestore through into the local store.
+     * Local echoes of writes that are still pending never overwrite stored rows.
+     *
+     * @param chatMessages Messages to store
+     */
+    private void persistMessages(List<ChatMessage> chatMessages) {
+        if (chatMessages.isEmpty()) {
+            return;
+        }
+        AppExecutors.getInstance().diskIO().execute(() ->
+                messageStore.putMessages(conversationId, chatMessages));
+    }
+
+    /**
+     * Shows the message list and hides the progress bar.
+     */
+    private void showMessages() {
+        binding.chatRecyclerView.setVisibility(View.VISIBLE);
+        binding.progressBar.setVisibility(View.GONE);
+    }
+
+    /**
+     * Observer for handling real-time message updates from Firebase.
+     * Runs on the query hub's thread: decodes every added or modified document
+     * and collects removed document IDs into one immutable batch, writes it through
+     * into the local store, raises the high-water mark to the newest confirmed message,
+     * and hands the ready-to-render batch to the UI thread.
+     * The first result may come from a listener shared with another screen, so all of
+     * its documents are applied rather than its changes.
+     */
+    private final QueryObserver messageObserver = (value, isInitial) ->
+            onMessagesSnapshot(value, isInitial, true);
+
+    /**
+     * Observer for the legacy collection's live tail. Applies changes like
+     * {@link #messageObserver} but leaves the high-water mark to the subcollection tail.
+     */
+    private final QueryObserver legacyMessageObserver = (value, isInitial) ->
+            onMessagesSnapshot(value, isInitial, false);
+
+    /**
+     * Decodes, stores and renders one result of a live tail.
+     *
+     * @param value Query result, or null if the query failed
+     * @param isInitial true for the first result delivered to this observer
+     * @param raisesHighWaterMark true if confirmed messages advance the high-water mark
      */
-    private final EventListener<QuerySnapshot> eventListener = ((value, error) -> {
-        if (error != null) {
+    private void onMessagesSnapshot(QuerySnapshot value, boolean isInitial, boolean raisesHighWaterMark) {
+        if (value == null) {
             return;
         }
-        if (value != null) {
-            int count = chatMessages.size();
+        List<ChatMessage> changedMessages = new ArrayList<>();
+        List<String> removedIds = new ArrayList<>();
+        if (isInitial) {
+            for (DocumentSnapshot documentSnapshot : value.getDocuments()) {
+                addChatMessage(changedMessages, documentSnapshot);
+            }
+        } else {
             for (DocumentChange documentChange : value.getDocumentChanges()) {
-                if (documentChange.getType() == DocumentChange.Type.ADDED) {
-                    ChatMessage chatMessage = new ChatMessage();
-                    chatMessage.senderId = documentChange.getDocument().getString(Constants.KEY_SENDER_ID);
-                    chatMessage.receiverId = documentChange.getDocument().getString(Constants.KEY_RECEIVER_ID);
-                    chatMessage.message = documentChange.getDocument().getString(Constants.KEY_MESSAGE);
-                    chatMessage.dateTime = getReadableDateTime(
-                            documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP));
-                    chatMessage.dateObject = documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP);
-                    chatMessages.add(chatMessage);
+                if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                    removedIds.add(documentChange.getDocument().getId());
+                } else {
+                    addChatMessage(changedMessages, documentChange.getDocument());
                 }
             }
+        }
+        if (changedMessages.isEmpty() && removedIds.isEmpty()) {
+            return;
+        }
+        List<ChatMessage> changedBatch = Collections.unmodifiableList(changedMessages);
+        List<String> removedBatch = Collections.unmodifiableList(removedIds);
+        long confirmedUntil = raisesHighWaterMark ? ConversationMessages.confirmedUntil(value.getDocuments(),
+                value.getMetadata().isFromCache()) : 0;
+        persistMessages(changedBatch);
+        if (!removedBatch.isEmpty()) {
+            AppExecutors.getInstance().diskIO().execute(() -> messageStore.deleteMessages(removedBatch));
+        }
+        if (confirmedUntil > 0) {
+            // Queued behind the write above, so the mark never runs ahead of the store
+            AppExecutors.getInstance().diskIO().execute(() ->
+                    messageStore.raiseHighWaterMark(conversationId, confirmedUntil));
+        }
+        AppExecutors.getInstance().mainThread().execute(() -> onMessagesChanged(changedBatch, removedBatch));
+    }
 
-            Collections.sort(chatMessages, (obj1, obj2) -> obj1.dateObject.compareTo(obj2.dateObject));
-            if (count == 0) {
-                chatAdapter.notifyDataSetChanged();
-            } else {
-                chatAdapter.notifyItemChanged(chatMessages.size(), chatMessages.size());
-                binding.chatRecyclerView.smoothScrollToPosition(chatMessages.size() - 1);
-            }
-            binding.chatRecyclerView.setVisibility(View.VISIBLE);
+    /**
+     * Applies a decoded batch of changes to the conversation stream, which
+     * places new messages in order, replaces edited ones by document ID and moves
+     * messages whose server timestamp was resolved. Submits one snapshot for the
+     * batch so the adapter diffs it in the background.
+     *
+     * @param changedMessages Added or modified messages from one snapshot
+     * @param removedIds Document IDs of messages removed in the same snapshot
+     */
+    private void onMessagesChanged(List<ChatMessage> changedMessages, List<String> removedIds) {
+        boolean appended = false;
+        boolean receivedNew = false;
+        for (String removedId : removedIds) {
+            conversationStream.remove(removedId);
         }
-        binding.progressBar.setVisibility(View.GONE);
-    });
+        for (ChatMessage chatMessage : changedMessages) {
+            boolean isNew = conversationStream.get(chatMessage.id) == null;
+            int position = conversationStream.update(chatMessage);
+            appended |= isNew && position == conversationStream.size() - 1;
+            receivedNew |= isNew && receiverUser.id.equals(chatMessage.senderId);
+        }
+        submitMessages(appended);
+        if (receivedNew) {
+            // Messages arriving while the chat is open are read right away; the sender's
+            // batch raised the count together with its messages, so it is above zero
+            resetUnreadCount();
+        }
+    }
 
     /**
-     * Converts a Base64 encoded image string to a Bitmap.
+     * Creates chat messages from a page of Firestore message documents.
+     * Safe to call off the main thread.
      *
-     * @param encodedImage String containing the Base64 encoded image data
-     * @return Bitmap object created from the decoded image data
+     * @param documents Message documents
+     * @return Immutable list of chat messages in the same order
      */
-    private Bitmap getBitmapFromEncodedString(String encodedImage) {
-        byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    private List<ChatMessage> toChatMessages(List<DocumentSnapshot> documents) {
+        List<ChatMessage> chatMessages = new ArrayList<>(documents.size());
+        for (DocumentSnapshot documentSnapshot : documents) {
+            addChatMessage(chatMessages, documentSnapshot);
+        }
+        return Collections.unmodifiableList(chatMessages);
+    }
+
+    /**
+     * Adds the chat message of a Firestore message document to a list,
+     * skipping documents that have no timestamp.
+     *
+     * @param chatMessages List to add to
+     * @param documentSnapshot Message document
+     */
+    private void addChatMessage(List<ChatMessage> chatMessages, DocumentSnapshot documentSnapshot) {
+        ChatMessage chatMessage = toChatMessage(documentSnapshot);
+        if (chatMessage != null) {
+            chatMessages.add(chatMessage);
+        }
+    }
+
+    /**
+     * Measures the bodies of messages read from the local store ahead of binding.
+     * Must be called off the main thread.
+     *
+     * @param chatMessages Messages to measure
+     */
+    private void precomputeMessages(List<ChatMessage> chatMessages) {
+        for (ChatMessage chatMessage : chatMessages) {
+            chatMessage.precomputedMessage = precomputeMessage(chatMessage.message);
+        }
+    }
+
+    /**
+     * Measures a message body with the text metrics of the message bubbles,
+     * so the adapter can bind it without doing text layout on the main thread.
+     *
+     * @param message Message body
+     * @return Precomputed text, or null if the message has no body
+     */
+    private PrecomputedTextCompat precomputeMessage(String message) {
+        if (message == null) {
+            return null;
+        }
+        return PrecomputedTextCompat.create(message, messageTextParams);
+    }
+
+    /**
+     * Creates a chat message from a Firestore message document, with its body measured.
+     *
+     * @param documentSnapshot Message document
+     * @return Chat message holding the document's data, or null if it has no timestamp
+     */
+    private ChatMessage toChatMessage(DocumentSnapshot documentSnapshot) {
+        ChatMessage chatMessage = ConversationMessages.toChatMessage(documentSnapshot);
+        if (chatMessage == null) {
+            return null;
+        }
+        chatMessage.precomputedMessage = precomputeMessage(chatMessage.message);
+        return chatMessage;
+    }
+
+    /**
+     * Publishes the current conversation to the adapter.
+     * Keeps the newest message in view once the diff has been applied.
+     *
+     * @param scrollToEnd true if a message was appended at the end of the conversation
+     */
+    private void submitMessages(boolean scrollToEnd) {
+        chatAdapter.submitList(conversationStream.getMessages(), () -> {
+            if (scrollToEnd && chatAdapter.getItemCount() > 0) {
+                binding.chatRecyclerView.smoothScrollToPosition(chatAdapter.getItemCount() - 1);
+            }
+        });
     }
 
     /**
      * Loads and displays the receiver's details in the chat interface.
-     * Retrieves user information from the intent extras and updates the UI.
+     * Reads the receiver's ID from the intent extras and the profile from the
+     * UserRepository. If the profile is not known yet, only the ID is available
+     * until showReceiverProfile receives the fetched profile.
      */
     private void loadReceiverDetails() {
-        receiverUser = (User) getIntent().getSerializableExtra(Constants.KEY_USER);
+        String receiverId = getIntent().getStringExtra(Constants.KEY_USER_ID);
+        receiverUser = UserRepository.getInstance().get(receiverId);
+        if (receiverUser == null) {
+            receiverUser = new User();
+            receiverUser.id = receiverId;
+        }
         binding.textName.setText(receiverUser.name);
     }
 
     /**
-     * Sets up click listeners for UI elements.
-     * Handles back button press and message sending actions.
+     * Shows the receiver's name and avatar.
+     * The avatar comes from the shared avatar cache, which usually holds it decoded already.
+     *
+     * @param user The receiver's profile, or null if it could not be loaded
      */
-    private void setListeners() {
-        binding.imageBack.setOnClickListener(v -> onBackPressed());
-        binding.layoutSend.setOnClickListener(v -> sendMessages());
+    private void showReceiverProfile(User user) {
+        if (user == null || isDestroyed()) {
+            return;
+        }
+        receiverUser = user;
+        binding.textName.setText(user.name);
+        AvatarCache.getInstance(getApplicationContext()).load(user.imageHash, Constants.KEY_AVATAR_THUMBNAIL,
+                chatAdapter::setReceiverProfileImage);
     }
 
     /**
-     * Formats a Date object into a human-readable string.
-     *
-     * @param date Date object to be formatted
-     * @return Formatted string in the pattern "MMM dd, yyyy - hh:mm a"
+     * Sets up click listeners for UI elements.
+     * Handles back button press, message sending actions and loading
+     * older messages when scrolling near the top of the chat.
      */
-    private String getReadableDateTime(Date date) {
-        return new SimpleDateFormat("MMM dd, yyyy - hh:mm a",
-                Locale.getDefault()).format(date);
+    private void setListeners() {
+        binding.imageBack.setOnClickListener(v -> onBackPressed());
+        binding.layoutSend.setOnClickListener(v -> sendMessages());
+        binding.chatRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                // Only fetch history while the user scrolls towards older messages
+                if (dy >= 0) {
+                    return;
+                }
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager != null
+                        && layoutManager.findFirstVisibleItemPosition() <= LOAD_MORE_THRESHOLD) {
+                    loadOlderMessages();
+                }
+            }
+        });
     }
 }
@@ -1,38 +1,65 @@
 package com.example.cslab4.activities;
 
+import android.Manifest;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Bundle;
-import android.util.Base64;
+import android.view.View;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
 import com.example.cslab4.R;
+import com.example.cslab4.adapters.RecentConversationsAdapter;
+import com.example.cslab4.database.UserStore;
 import com.example.cslab4.databinding.ActivityMainBinding;
+import com.example.cslab4.firebase.ConversationPrefetcher;
+import com.example.cslab4.firebase.MessageOutbox;
+import com.example.cslab4.firebase.SnapshotSubscription;
+import com.example.cslab4.firebase.UserRepository;
+import com.example.cslab4.listeners.ConversationListener;
+import com.example.cslab4.models.Conversation;
+import com.example.cslab4.models.User;
+import com.example.cslab4.utilities.AppExecutors;
+import com.example.cslab4.utilities.AvatarCache;
 import com.example.cslab4.utilities.Constants;
 import com.example.cslab4.utilities.PreferenceManager;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.messaging.FirebaseMessaging;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * MainActivity serves as the primary user interface after successful authentication.
- * Handles user profile display, messaging token management, and navigation to other activities.
+ * Handles user profile display, the recent conversations list, messaging token management,
+ * and navigation to other activities.
  * Implements Firebase Cloud Messaging for push notifications and Firestore for data storage.
  */
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements ConversationListener {
 
     private ActivityMainBinding binding;
     private PreferenceManager preferenceManager;
+    private RecentConversationsAdapter conversationsAdapter;
+    private UserStore userStore;
+
+    // Number of recent conversations shown
+    private static final int RECENT_CONVERSATIONS_LIMIT = 30;
+    private static final int REQUEST_CODE_NOTIFICATIONS = 1;
 
     /**
      * Initializes the activity, sets up view binding, and configures user interface components.
@@ -46,9 +73,164 @@ public class MainActivity extends AppCompatActivity {
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
         preferenceManager = new PreferenceManager(getApplicationContext());
+        userStore = new UserStore(getApplicationContext());
+        conversationsAdapter = new RecentConversationsAdapter(this);
+        binding.conversationsRecyclerView.setAdapter(conversationsAdapter);
         loadUserDetails();
         getToken();
+        requestNotificationPermission();
         setListeners();
+        listenConversations();
+        // Resume sending messages left pending by an earlier session
+        MessageOutbox.getInstance(getApplicationContext()).flush();
+    }
+
+    /**
+     * Listens to the signed-in user's most recent conversations while the activity is visible.
+     * A single indexed, limited query over the conversation summaries
+     * replaces scanning the chat collection. The query is shared through the
+     * QueryHub, and the subscription pauses it in onStop and resumes it in onStart.
+     * Results arrive on the hub thread, where the other participants' avatars are
+     * looked up in the stored user directory.
+     */
+    private void listenConversations() {
+        String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
+        Query recentConversations = FirebaseFirestore.getInstance()
+                .collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .whereArrayContains(Constants.KEY_PARTICIPANTS, currentUserId)
+                .orderBy(Constants.KEY_LAST_TIMESTAMP, Query.Direction.DESCENDING)
+                .limit(RECENT_CONVERSATIONS_LIMIT);
+        // Every result holds the whole list, so the query never continues after a document
+        SnapshotSubscription.bind(this, "conversations/" + currentUserId + "/recent", null,
+                after -> recentConversations, (value, isInitial) -> {
+                    List<Conversation> conversations = null;
+                    if (value != null) {
+                        conversations = new ArrayList<>();
+                        for (DocumentSnapshot documentSnapshot : value.getDocuments()) {
+                            Conversation conversation = toConversation(documentSnapshot, currentUserId);
+                            addReceiverProfile(conversation);
+                            conversations.add(conversation);
+                        }
+                    }
+                    List<Conversation> recent = conversations;
+                    AppExecutors.getInstance().mainThread().execute(() -> showConversations(recent));
+                });
+    }
+
+    /**
+     * Adds the other participant's avatar hash to a conversation, and their name if the
+     * summary has none. Profiles come from the stored user directory, since the
+     * UserRepository may only be used on the main thread; must be called off the main thread.
+     *
+     * @param conversation Conversation to complete
+     */
+    private void addReceiverProfile(Conversation conversation) {
+        if (conversation.receiverId == null) {
+            return;
+        }
+        User user = userStore.getUser(conversation.receiverId);
+        if (user == null) {
+            return;
+        }
+        conversation.receiverImageHash = user.imageHash;
+        if (conversation.receiverName == null) {
+            conversation.receiverName = user.name;
+        }
+    }
+
+    /**
+     * Shows the recent conversations and hides the progress bar.
+     *
+     * @param conversations Recent conversations, or null if they could not be loaded
+     */
+    private void showConversations(List<Conversation> conversations) {
+        binding.progressBar.setVisibility(View.GONE);
+        if (conversations == null) {
+            return;
+        }
+        conversationsAdapter.submitList(conversations);
+        binding.conversationsRecyclerView.setVisibility(View.VISIBLE);
+        prefetchRecentConversations(conversations);
+    }
+
+    /**
+     * Hands the most recent conversations to the prefetcher, so opening them is instant.
+     * Avatars are only prefetched for users whose profile is already known.
+     *
+     * @param conversations Recent conversations, most recent first
+     */
+    private void prefetchRecentConversations(List<Conversation> conversations) {
+        List<User> users = new ArrayList<>(conversations.size());
+        for (Conversation conversation : conversations) {
+            if (conversation.receiverId == null) {
+                continue;
+            }
+            User user = UserRepository.getInstance().get(conversation.receiverId);
+            if (user == null) {
+                user = new User();
+                user.id = conversation.receiverId;
+            }
+            users.add(user);
+        }
+        ConversationPrefetcher.getInstance(getApplicationContext()).prefetchWhenIdle(users);
+    }
+
+    /**
+     * Cancels a scheduled prefetch once the conversations are no longer visible.
+     */
+    @Override
+    protected void onStop() {
+        ConversationPrefetcher.getInstance(getApplicationContext()).cancel();
+        super.onStop();
+    }
+
+    /**
+     * Creates a conversation from a conversation summary document.
+     *
+     * @param documentSnapshot Conversation summary document
+     * @param currentUserId ID of the signed-in user
+     * @return Conversation as seen by the signed-in user
+     */
+    @SuppressWarnings("unchecked")
+    private Conversation toConversation(DocumentSnapshot documentSnapshot, String currentUserId) {
+        Conversation conversation = new Conversation();
+        conversation.id = documentSnapshot.getId();
+        List<String> participants = (List<String>) documentSnapshot.get(Constants.KEY_PARTICIPANTS);
+        if (participants != null) {
+            for (String participant : participants) {
+                if (!participant.equals(currentUserId)) {
+                    conversation.receiverId = participant;
+                }
+            }
+        }
+        Map<String, Object> names = (Map<String, Object>) documentSnapshot.get(Constants.KEY_PARTICIPANT_NAMES);
+        if (names != null && conversation.receiverId != null) {
+            conversation.receiverName = (String) names.get(conversation.receiverId);
+        }
+        conversation.lastMessage = documentSnapshot.getString(Constants.KEY_LAST_MESSAGE);
+        conversation.lastSenderId = documentSnapshot.getString(Constants.KEY_LAST_SENDER_ID);
+        Date lastTimestamp = documentSnapshot.getDate(Constants.KEY_LAST_TIMESTAMP,
+                DocumentSnapshot.ServerTimestampBehavior.ESTIMATE);
+        conversation.lastTimestamp = lastTimestamp != null ? lastTimestamp.getTime() : 0;
+        Long unreadCount = documentSnapshot.getLong(Constants.KEY_UNREAD_COUNT + "." + currentUserId);
+        conversation.unreadCount = unreadCount != null ? unreadCount : 0;
+        return conversation;
+    }
+
+    /**
+     * Opens the chat for a selected conversation.
+     * ChatActivity loads the other participant's profile through the UserRepository.
+     *
+     * @param conversation The selected Conversation object
+     */
+    @Override
+    public void onConversationClicked(Conversation conversation) {
+        if (conversation.receiverId == null) {
+            return;
+        }
+        Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
+        intent.putExtra(Constants.KEY_USER_ID, conversation.receiverId);
+        startActivity(intent);
     }
 
     /**
@@ -79,11 +261,10 @@ public class MainActivity extends AppCompatActivity {
         }
 
         // Load and display profile image if available
-        String imageString = preferenceManager.getString(Constants.KEY_IMAGE);
-        if (imageString != null) {
-            byte[] bytes = Base64.decode(imageString, Base64.DEFAULT);
-            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-            binding.imageProfile.setImageBitmap(bitmap);
+        String imageHash = preferenceManager.getString(Constants.KEY_IMAGE_HASH);
+        if (imageHash != null) {
+            AvatarCache.getInstance(getApplicationContext()).loadInto(binding.imageProfile, imageHash,
+                    Constants.KEY_AVATAR_THUMBNAIL);
         }
     }
 
@@ -105,24 +286,47 @@ public class MainActivity extends AppCompatActivity {
         FirebaseMessaging.getInstance().getToken().addOnSuccessListener(this::updateToken);
     }
 
+    /**
+     * Asks for permission to post message notifications on Android 13 and later.
+     */
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_CODE_NOTIFICATIONS);
+        }
+    }
+
     /**
      * Updates the user's FCM token in Firestore.
      * Ensures proper delivery of push notifications by maintaining current token.
+     * Bumps the user's updatedAt time so other devices pick up the change on their next directory sync.
+     * Does nothing if the token is the one already stored, so launching the app does not
+     * mark the user as changed for every directory sync.
      *
      * @param token The new FCM token to be stored in Firestore
      */
     private void updateToken(String token){
+        if (token.equals(preferenceManager.getString(Constants.KEY_FCM_TOKEN))) {
+            return;
+        }
         FirebaseFirestore database = FirebaseFirestore.getInstance();
         DocumentReference documentReference = database.collection(Constants.KEY_COLLECTION_USERS)
                 .document(preferenceManager.getString((Constants.KEY_USER_ID)));
-        documentReference.update(Constants.KEY_FCM_TOKEN, token)
-                .addOnSuccessListener(unused -> showToast("Token updated successfully"))
+        documentReference.update(Constants.KEY_FCM_TOKEN, token,
+                        Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp())
+                .addOnSuccessListener(unused -> {
+                    preferenceManager.putString(Constants.KEY_FCM_TOKEN, token);
+                    showToast("Token updated successfully");
+                })
                 .addOnFailureListener(e -> showToast("Unable to update token"));
     }
 
     /**
      * Handles the sign-out process.
-     * Removes the FCM token, clears local preferences, and returns to sign-in screen.
+     * Removes the FCM token, clears the local database, unsent messages and preferences,
+     * and returns to sign-in screen.
      * Shows appropriate feedback messages for success/failure states.
      */
     private void signOut(){
@@ -133,12 +337,16 @@ public class MainActivity extends AppCompatActivity {
         HashMap<String, Object> updates = new HashMap<>();
         // Prepare updates for sign-out
         updates.put(Constants.KEY_FCM_TOKEN, FieldValue.delete());
+        updates.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
         // Execute sign-out process
         documentReference.update(updates)
-                .addOnSuccessListener(unused -> {
-                    preferenceManager.clear();
-                    startActivity(new Intent(getApplicationContext(), SignInActivity.class));
-                    finish();
-                }).addOnFailureListener(e -> showToast("Unable to sign out"));
+                .addOnSuccessListener(unused -> MessageOutbox.getInstance(getApplicationContext())
+                        // Drop the stored chats and unsent messages before the next user signs in
+                        .clear(() -> {
+                            preferenceManager.clear();
+                            startActivity(new Intent(getApplicationContext(), SignInActivity.class));
+                            finish();
+                        }))
+                .addOnFailureListener(e -> showToast("Unable to sign out"));
     }
 }
\ No newline at end of file
@@ -15,6 +15,7 @@ import androidx.core.view.WindowInsetsCompat;
 
 import com.example.cslab4.R;
 import com.example.cslab4.databinding.ActivitySignInBinding;
+import com.example.cslab4.firebase.UserRepository;
 import com.example.cslab4.utilities.Constants;
 import com.example.cslab4.utilities.PreferenceManager;
 import com.google.firebase.firestore.DocumentSnapshot;
@@ -109,7 +110,8 @@ public class SignInActivity extends AppCompatActivity {
                         preferenceManager.putString(Constants.KEY_USER_ID,documentSnapshot.getId());
                         preferenceManager.putString(Constants.KEY_FNAME,documentSnapshot.getString(Constants.KEY_FNAME));
                         preferenceManager.putString(Constants.KEY_LNAME,documentSnapshot.getString(Constants.KEY_LNAME));
-                        preferenceManager.putString(Constants.KEY_IMAGE,documentSnapshot.getString(Constants.KEY_IMAGE));
+                        preferenceManager.putString(Constants.KEY_IMAGE_HASH,UserRepository.toUser(documentSnapshot).imageHash);
+                        preferenceManager.putString(Constants.KEY_FCM_TOKEN,documentSnapshot.getString(Constants.KEY_FCM_TOKEN));
                         // Launch MainActivity
                         Intent intent = new Intent(getApplicationContext(), MainActivity.class);
                         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
@@ -2,11 +2,9 @@ package com.example.cslab4.activities;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
-import android.util.Base64;
 import android.util.Patterns;
 import android.view.View;
 import android.widget.Toast;
@@ -22,15 +20,22 @@ import androidx.core.view.WindowInsetsCompat;
 import com.example.cslab4.R;
 import com.example.cslab4.databinding.ActivitySignInBinding;
 import com.example.cslab4.databinding.ActivitySignUpBinding;
+import com.example.cslab4.utilities.AppExecutors;
+import com.example.cslab4.utilities.AvatarDiskCache;
+import com.example.cslab4.utilities.AvatarEncoder;
 import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.ImageIntake;
 import com.example.cslab4.utilities.PreferenceManager;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * SignUpActivity handles new user registration functionality.
@@ -42,7 +47,7 @@ public class SignUpActivity extends AppCompatActivity {
 
     private ActivitySignUpBinding binding;
     private PreferenceManager preferenceManager;
-    private String encodeImage;
+    private Map<String, String> avatarVariants;
 
     /**
      * Initializes the sign-up activity and sets up the user interface.
@@ -97,7 +102,8 @@ public class SignUpActivity extends AppCompatActivity {
      * Creates a new user account, stores user data in Firestore,
      * and manages the sign-up flow including:
      * - Showing loading state
-     * - Creating user document in Firestore
+     * - Storing the avatar's size variants in the avatars collection under its content hash
+     * - Creating user document in Firestore that references the avatar by hash
      * - Storing user preferences
      * - Navigating to MainActivity upon success
      * - Handling potential errors
@@ -107,24 +113,38 @@ public class SignUpActivity extends AppCompatActivity {
 
         // Initialize Firestore instance
         FirebaseFirestore database = FirebaseFirestore.getInstance();
-        HashMap<String,String> user = new HashMap<>();
+        // The largest variant identifies the avatar
+        String imageHash = AvatarDiskCache.hashOf(avatarVariants.get(Constants.KEY_AVATAR_PROFILE));
+        HashMap<String,Object> user = new HashMap<>();
         // Prepare user data for storage
         user.put(Constants.KEY_FNAME, binding.inputFirstName.getText().toString());
         user.put(Constants.KEY_LNAME, binding.inputLastName.getText().toString());
         user.put(Constants.KEY_EMAIL, binding.inputEmail.getText().toString());
         user.put(Constants.KEY_PASSWORD, binding.inputPassword.getText().toString());
-        user.put(Constants.KEY_IMAGE,encodeImage);
+        user.put(Constants.KEY_IMAGE_HASH, imageHash);
+        user.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
 
-        // Add user to Firestore
-        database.collection(Constants.KEY_COLLECTION_USERS)
-                .add(user)
-                .addOnSuccessListener(documentReference -> {
+        // Write the avatar variants and the user document together so neither exists without the other
+        DocumentReference userReference = database.collection(Constants.KEY_COLLECTION_USERS).document();
+        CollectionReference variantsReference = database.collection(Constants.KEY_COLLECTION_AVATARS)
+                .document(imageHash)
+                .collection(Constants.KEY_COLLECTION_AVATAR_VARIANTS);
+        WriteBatch batch = database.batch();
+        for (Map.Entry<String, String> variant : avatarVariants.entrySet()) {
+            HashMap<String,String> avatar = new HashMap<>();
+            avatar.put(Constants.KEY_IMAGE, variant.getValue());
+            batch.set(variantsReference.document(variant.getKey()), avatar);
+        }
+        batch.set(userReference, user);
+        batch.commit()
+                .addOnSuccessListener(unused -> {
                     loading(false);
                     // Store user data in preferences
                     preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN,true);
+                    preferenceManager.putString(Constants.KEY_USER_ID,userReference.getId());
                     preferenceManager.putString(Constants.KEY_FNAME,binding.inputFirstName.getText().toString());
                     preferenceManager.putString(Constants.KEY_LNAME,binding.inputLastName.getText().toString());
-                    preferenceManager.putString(Constants.KEY_IMAGE,encodeImage);
+                    preferenceManager.putString(Constants.KEY_IMAGE_HASH,imageHash);
 
                     // Navigate to MainActivity
                     Intent intent = new Intent(getApplicationContext(), MainActivity.class);
@@ -137,29 +157,6 @@ public class SignUpActivity extends AppCompatActivity {
                 });
     }
 
-    /**
-     * Encodes a bitmap image to Base64 string format for storage.
-     * Scales the image down to a preview size before encoding to reduce storage size.
-     *
-     * @param bitmap The bitmap image to be encoded
-     * @return Base64 encoded string of the scaled image
-     */
-    private String encodeImage(Bitmap bitmap) {
-        // Scale image to preview size
-        int previewWidth = 150;
-        int previewHeight = bitmap.getHeight() * previewWidth / bitmap.getWidth();
-
-        Bitmap previewBitmap = Bitmap.createScaledBitmap(bitmap,previewWidth,previewHeight,false);
-
-        // Encode image to Base64
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-        previewBitmap.compress(Bitmap.CompressFormat.JPEG,50,byteArrayOutputStream);
-
-        byte[] bytes = byteArrayOutputStream.toByteArray();
-        return Base64.encodeToString(bytes,Base64.DEFAULT);
-    }
-
     /**
      * ActivityResultLauncher for handling image selection from gallery.
      * Processes the selected image and updates the UI accordingly.
@@ -167,24 +164,50 @@ public class SignUpActivity extends AppCompatActivity {
     private final ActivityResultLauncher<Intent> pickImage = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result ->{
-                if (result.getResultCode() == RESULT_OK){
-                    Uri imageUri = result.getData().getData();
-                    try {
-                        // Load and process selected image
-                        InputStream inputStream = getContentResolver().openInputStream(imageUri);
-                        Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                        // Update UI with selected image
-                        binding.imageProfile.setImageBitmap(bitmap);
-                        binding.textAddImage.setVisibility(View.GONE);
-                        encodeImage = encodeImage(bitmap);
-
-                    } catch (FileNotFoundException e) {
-                        e.printStackTrace();
-                    }
+                if (result.getResultCode() == RESULT_OK && result.getData() != null){
+                    loadImage(result.getData().getData());
                 }
             }
     );
 
+    /**
+     * Reads a picked image and encodes its avatar variants in the background.
+     * The image is decoded straight to the largest variant size, so even very large
+     * photos never have to fit in memory at full resolution.
+     *
+     * @param imageUri Content URI of the picked image
+     */
+    private void loadImage(Uri imageUri) {
+        AppExecutors.getInstance().imageDecode().execute(() -> {
+            Bitmap bitmap = null;
+            Map<String, String> variants = null;
+            try {
+                // Load and process selected image
+                bitmap = ImageIntake.decode(getContentResolver(), imageUri, AvatarEncoder.PROFILE_SIZE_PX);
+                if (bitmap != null) {
+                    variants = AvatarEncoder.encodeVariants(bitmap);
+                }
+            } catch (IOException | SecurityException e) {
+                e.printStackTrace();
+            }
+            Bitmap preview = bitmap;
+            Map<String, String> encoded = variants;
+            AppExecutors.getInstance().mainThread().execute(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (preview == null) {
+                    showToast("Unable to load image");
+                    return;
+                }
+                // Update UI with selected image
+                binding.imageProfile.setImageBitmap(preview);
+                binding.textAddImage.setVisibility(View.GONE);
+                avatarVariants = encoded;
+            });
+        });
+    }
+
     /**
      * Validates all user input fields for the sign-up form.
      * Checks for:
@@ -197,7 +220,7 @@ public class SignUpActivity extends AppCompatActivity {
      * @return true if all inputs are valid, false otherwise
      */
     private Boolean isValidateSignUpDetails(){
-        if (encodeImage == null){
+        if (avatarVariants == null){
             showToast("Please Pick Profile Picture");
             return false;
         }else if(binding.inputFirstName.getText().toString().trim().isEmpty()){
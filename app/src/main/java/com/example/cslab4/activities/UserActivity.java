@@ -2,37 +2,65 @@ package com.example.cslab4.activities;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.cslab4.R;
 import com.example.cslab4.adapters.UsersAdapter;
+import com.example.cslab4.database.UserStore;
 import com.example.cslab4.databinding.ActivityUserBinding;
+import com.example.cslab4.firebase.ConversationPrefetcher;
+import com.example.cslab4.firebase.UserDirectory;
+import com.example.cslab4.firebase.UserRepository;
 import com.example.cslab4.listeners.UserListener;
 import com.example.cslab4.models.User;
+import com.example.cslab4.utilities.AppExecutors;
 import com.example.cslab4.utilities.Constants;
 import com.example.cslab4.utilities.PreferenceManager;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.example.cslab4.utilities.UserSearchIndex;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * UserActivity displays a list of available users for chat interactions.
  * Implements UserListener interface to handle user selection events.
- * Manages the retrieval and display of user data from Firebase Firestore,
- * excluding the current user from the list.
+ * Renders the user directory from the local UserStore, so reopening the screen is
+ * instant, and pulls only users changed since the previous sync from Firestore.
+ * Both the rendered list and the first download are paged as the user scrolls.
+ * Typing in the search field filters the cached directory through an in-memory
+ * prefix index, without any network calls.
+ * The current user is excluded from the list.
  */
 public class UserActivity extends AppCompatActivity implements UserListener {
     private ActivityUserBinding binding;
     private PreferenceManager preferenceManager;
+    private UsersAdapter usersAdapter;
+    private UserStore userStore;
+    private UserDirectory userDirectory;
+    private ConversationPrefetcher conversationPrefetcher;
+    private int displayLimit = USER_PAGE_SIZE;
+    private boolean hasSynced = false;
+    private boolean isCatchingUp = false;
+    private boolean hasMoreChanges = true;
+    private boolean isSyncing = false;
+    private UserSearchIndex searchIndex;
+    private String searchQuery = "";
+
+    // Number of users rendered per page
+    private static final int USER_PAGE_SIZE = 50;
+    // Load the next page once the last visible user is this close to the end
+    private static final int LOAD_MORE_THRESHOLD = 10;
 
     /**
      * Initializes the user activity and sets up the user interface.
@@ -46,62 +74,217 @@ public class UserActivity extends AppCompatActivity implements UserListener {
         binding = ActivityUserBinding.inflate(getLayoutInflater());
         preferenceManager = new PreferenceManager(getApplicationContext());
         setContentView(binding.getRoot());
+        usersAdapter = new UsersAdapter(this);
+        binding.usersRecyclerView.setAdapter(usersAdapter);
+        userStore = new UserStore(getApplicationContext());
+        userDirectory = UserDirectory.getInstance(getApplicationContext());
+        conversationPrefetcher = ConversationPrefetcher.getInstance(getApplicationContext());
         setListeners();
         getUsers();
+        buildSearchIndex();
     }
 
     /**
-     * Sets up click listeners for UI elements.
-     * Currently handles the back button navigation.
+     * Sets up listeners for UI elements.
+     * Handles the back button navigation, searching as the user types, loading
+     * more users near the end of the list and prefetching once scrolling stops.
      */
     private void setListeners(){
         binding.imageBack.setOnClickListener(v -> onBackPressed());
+        binding.inputSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchQuery = s.toString().trim();
+                if (isSearching()) {
+                    showSearchResults();
+                } else {
+                    getUsers();
+                }
+            }
+        });
+        binding.usersRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    prefetchVisibleUsers();
+                } else {
+                    conversationPrefetcher.cancel();
+                }
+            }
+
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy <= 0) {
+                    return;
+                }
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager != null && !isSearching() && usersAdapter.getItemCount() >= displayLimit
+                        && layoutManager.findLastVisibleItemPosition() >= usersAdapter.getItemCount() - LOAD_MORE_THRESHOLD) {
+                    displayLimit += USER_PAGE_SIZE;
+                    getUsers();
+                }
+            }
+        });
     }
 
     /**
-     * Retrieves user data from Firebase Firestore.
-     * Filters out the current user and populates the RecyclerView with available users.
-     * Handles loading states and error scenarios.
+     * Shows the cached users and then downloads changed users if needed.
+     * Users in the local store appear immediately. A page of changes is downloaded
+     * when the screen opens, when the store cannot fill the list, and while catching up
+     * with changes made since the screen was last opened.
      */
     private void getUsers(){
-        loading(true); // Show loading indicator
-        FirebaseFirestore database = FirebaseFirestore.getInstance();
-
-        // Query all users from Firestore
-        database.collection(Constants.KEY_COLLECTION_USERS).get()
-                .addOnCompleteListener(task -> {
-                    loading(false);
-                    String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
-                    if(task.isSuccessful() && task.getResult()!=null){
-                        List<User> users = new ArrayList<>();
-                        // Process each user document
-                        for(QueryDocumentSnapshot queryDocumentSnapshot : task.getResult()){
-                            // Skip current user
-                            if(currentUserId.equals(queryDocumentSnapshot.getId())){
-                                continue;
-                            }
-
-                            // Create user object from document data
-                            User user = new User();
-                            user.name = queryDocumentSnapshot.getString(Constants.KEY_FNAME) + " " + queryDocumentSnapshot.getString(Constants.KEY_LNAME);
-                            user.email = queryDocumentSnapshot.getString(Constants.KEY_EMAIL);
-                            user.image = queryDocumentSnapshot.getString(Constants.KEY_IMAGE);
-                            user.token = queryDocumentSnapshot.getString(Constants.KEY_FCM_TOKEN);
-                            user.id = queryDocumentSnapshot.getId();
-                            users.add(user);
-                        }
-                        // Update UI based on results
-                        if(users.size() > 0){
-                            UsersAdapter usersAdapter = new UsersAdapter(users, this);
-                            binding.usersRecyclerView.setAdapter(usersAdapter);
-                            binding.usersRecyclerView.setVisibility(View.VISIBLE);
-                        }else{
-                            showErrorMessage();
-                        }
-                    } else {
-                        showErrorMessage();
-                    }
-                });
+        String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
+        int limit = displayLimit;
+        AppExecutors.getInstance().diskIO().execute(() -> {
+            List<User> users = userStore.getUsers(currentUserId, limit);
+            AppExecutors.getInstance().mainThread().execute(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (!isSearching()) {
+                    showUsers(users);
+                }
+                if (!isSyncing && hasMoreChanges && (!hasSynced || isCatchingUp || users.size() < limit)) {
+                    syncUsers(users.isEmpty());
+                }
+            });
+        });
+    }
+
+    /**
+     * Downloads the next page of changed users, then renders the store again.
+     *
+     * @param isListEmpty true if no users are shown yet
+     */
+    private void syncUsers(boolean isListEmpty){
+        isSyncing = true;
+        if (isListEmpty) {
+            loading(true); // Show loading indicator
+        } else if (!hasSynced) {
+            // The directory was already cached, so keep pulling changes until caught up
+            isCatchingUp = true;
+        }
+        hasSynced = true;
+        userDirectory.syncNextPage().addOnCompleteListener(task -> {
+            isSyncing = false;
+            loading(false);
+            if (isDestroyed()) {
+                return;
+            }
+            hasMoreChanges = task.isSuccessful() && Boolean.TRUE.equals(task.getResult());
+            if (!hasMoreChanges) {
+                isCatchingUp = false;
+            }
+            if (!task.isSuccessful() && usersAdapter.getItemCount() == 0) {
+                showErrorMessage();
+                return;
+            }
+            getUsers();
+            if (task.isSuccessful()) {
+                buildSearchIndex();
+            }
+        });
+    }
+
+    /**
+     * Returns whether the list currently shows search results.
+     */
+    private boolean isSearching(){
+        return !searchQuery.isEmpty();
+    }
+
+    /**
+     * Rebuilds the search index from the whole cached directory in the background.
+     * Search results are refreshed once the new index is ready.
+     */
+    private void buildSearchIndex(){
+        String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
+        AppExecutors.getInstance().diskIO().execute(() -> {
+            UserSearchIndex index = new UserSearchIndex(userStore.getAllUsers(currentUserId));
+            AppExecutors.getInstance().mainThread().execute(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                searchIndex = index;
+                if (isSearching()) {
+                    showSearchResults();
+                }
+            });
+        });
+    }
+
+    /**
+     * Shows the cached users matching the search query.
+     * Does nothing until the search index has been built.
+     */
+    private void showSearchResults(){
+        if (searchIndex == null) {
+            return;
+        }
+        List<User> users = searchIndex.search(searchQuery);
+        UserRepository userRepository = UserRepository.getInstance();
+        for (User user : users) {
+            userRepository.put(user);
+        }
+        usersAdapter.submitList(users, this::prefetchVisibleUsers);
+        if (users.isEmpty()) {
+            binding.textErrorMessage.setText(String.format("%s", "No user found"));
+            binding.textErrorMessage.setVisibility(View.VISIBLE);
+        } else {
+            binding.textErrorMessage.setVisibility(View.GONE);
+            binding.usersRecyclerView.setVisibility(View.VISIBLE);
+        }
+    }
+
+    /**
+     * Renders a page of users and makes them available to other screens.
+     *
+     * @param users Users to show, in display order
+     */
+    private void showUsers(List<User> users){
+        UserRepository userRepository = UserRepository.getInstance();
+        for (User user : users) {
+            userRepository.put(user);
+        }
+        usersAdapter.submitList(users, this::prefetchVisibleUsers);
+        if (users.size() > 0) {
+            loading(false);
+            binding.textErrorMessage.setVisibility(View.GONE);
+            binding.usersRecyclerView.setVisibility(View.VISIBLE);
+        } else if (!isSyncing && !hasMoreChanges) {
+            showErrorMessage();
+        }
+    }
+
+    /**
+     * Hands the users at the top of the visible part of the list to the prefetcher,
+     * which prepares their conversations once the list stays idle.
+     */
+    private void prefetchVisibleUsers(){
+        LinearLayoutManager layoutManager = (LinearLayoutManager) binding.usersRecyclerView.getLayoutManager();
+        List<User> users = usersAdapter.getCurrentList();
+        int firstVisible = layoutManager != null ? Math.max(layoutManager.findFirstVisibleItemPosition(), 0) : 0;
+        if (firstVisible < users.size()) {
+            conversationPrefetcher.prefetchWhenIdle(users.subList(firstVisible, users.size()));
+        }
+    }
+
+    /**
+     * Cancels a scheduled prefetch once the list is no longer visible.
+     */
+    @Override
+    protected void onStop() {
+        conversationPrefetcher.cancel();
+        super.onStop();
     }
 
     /**
@@ -129,6 +312,7 @@ public class UserActivity extends AppCompatActivity implements UserListener {
     /**
      * Handles user selection events from the RecyclerView.
      * Initiates a chat session with the selected user by launching ChatActivity.
+     * Only the user ID is passed; ChatActivity reads the profile from the UserRepository.
      *
      * @param user The selected User object containing user details
      */
@@ -136,7 +320,7 @@ public class UserActivity extends AppCompatActivity implements UserListener {
     public void onUserClicked(User user) {
         // to-do later
         Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
-        intent.putExtra(Constants.KEY_USER, user);
+        intent.putExtra(Constants.KEY_USER_ID, user.id);
         startActivity(intent);
         finish();
     }
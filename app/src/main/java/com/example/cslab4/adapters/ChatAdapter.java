@@ -3,42 +3,85 @@ package com.example.cslab4.adapters;
 import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.cslab4.R;
 import com.example.cslab4.databinding.ItemContainerReceivedMessageBinding;
 import com.example.cslab4.databinding.ItemContainerSentMessageBinding;
 import com.example.cslab4.models.ChatMessage;
-
-import java.util.List;
+import com.example.cslab4.utilities.MessageTimeFormatter;
 
 /**
  * Adapter class for managing chat messages in a RecyclerView.
  * Handles both sent and received messages with different view types.
  * Supports displaying profile images for received messages.
+ * Message lists are diffed on a background thread and only the changed
+ * ranges are dispatched, with stable IDs derived from the Firestore document ID.
+ * Binding allocates nothing once a message has been shown: its view type and
+ * formatted timestamp are resolved once and stored on the message, and view holders
+ * skip views whose content is already bound.
  */
-public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class ChatAdapter extends ListAdapter<ChatMessage, RecyclerView.ViewHolder> {
 
     private Bitmap receiverProfileImage;
-    private final List<ChatMessage> chatMessages;
     private final String sendId;
 
-    // Constants for view types
-    private static final int VIEW_TYPE_SENT = 1;
-    private static final int VIEW_TYPE_RECEIVED = 2;
+    // Constants for view types; 0 marks a message whose type is not resolved yet
+    static final int VIEW_TYPE_SENT = 1;
+    static final int VIEW_TYPE_RECEIVED = 2;
+
+    // Opacity of messages that have not been sent yet
+    private static final float PENDING_ALPHA = 0.6f;
+
+    /**
+     * Identifies messages by document ID and compares their full content
+     * so the differ can tell inserts apart from in-place changes.
+     */
+    private static final DiffUtil.ItemCallback<ChatMessage> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<ChatMessage>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+                    return oldItem.id.equals(newItem.id);
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
 
     /**
      * Constructs a new ChatAdapter.
+     * Messages are supplied later through {@link #submitList}.
      *
-     * @param chatMessages List of chat messages to display
      * @param receiverProfileImage Profile image of the message receiver
      * @param sendId ID of the message sender for differentiating message types
      */
-    public ChatAdapter(List<ChatMessage> chatMessages, Bitmap receiverProfileImage, String sendId)  {
-        this.chatMessages = chatMessages;
+    public ChatAdapter(Bitmap receiverProfileImage, String sendId)  {
+        super(DIFF_CALLBACK);
         this.receiverProfileImage = receiverProfileImage;
         this.sendId = sendId;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Sets the profile image shown next to received messages once it has been decoded.
+     * Only rebinds the rows if the image actually changed.
+     *
+     * @param receiverProfileImage Profile image of the message receiver
+     */
+    public void setReceiverProfileImage(Bitmap receiverProfileImage) {
+        if (this.receiverProfileImage == receiverProfileImage) {
+            return;
+        }
+        this.receiverProfileImage = receiverProfileImage;
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     /**
@@ -70,16 +113,30 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         if(getItemViewType(position) == VIEW_TYPE_SENT){
-            ((SentMessageViewHolder)holder).setData(chatMessages.get(position));
+            ((SentMessageViewHolder)holder).setData(getItem(position));
         } else {
             ((ReceiverMessageViewHolder)holder)
-                    .setData(chatMessages.get(position), receiverProfileImage);
+                    .setData(getItem(position), receiverProfileImage);
         }
     }
 
+    /**
+     * Returns a stable ID for the message at given position.
+     * Derived from the Firestore document ID with a 64-bit FNV-1a hash,
+     * which keeps collisions negligible for any realistic conversation.
+     *
+     * @param position Position of the message in the dataset
+     * @return Stable ID of the message
+     */
     @Override
-    public int getItemCount() {
-        return chatMessages.size();
+    public long getItemId(int position) {
+        String id = getItem(position).id;
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 
     /**
@@ -90,11 +147,40 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
      */
     @Override
     public int getItemViewType(int position) {
-        if(chatMessages.get(position).senderId.equals(sendId)){
-            return VIEW_TYPE_SENT;
+        ChatMessage chatMessage = getItem(position);
+        // Compare the sender only the first time the message is shown
+        if (chatMessage.viewType == 0) {
+            chatMessage.viewType = sendId.equals(chatMessage.senderId) ? VIEW_TYPE_SENT : VIEW_TYPE_RECEIVED;
+        }
+        return chatMessage.viewType;
+    }
+
+    /**
+     * Sets the message body, using the precomputed layout when available
+     * so binding does no text measurement.
+     *
+     * @param textView TextView showing the message body
+     * @param chatMessage Message data to display
+     */
+    private static void setMessageText(TextView textView, ChatMessage chatMessage) {
+        if (chatMessage.precomputedMessage != null) {
+            TextViewCompat.setPrecomputedText(textView, chatMessage.precomputedMessage);
         } else {
-            return VIEW_TYPE_RECEIVED;
+            textView.setText(chatMessage.message);
+        }
+    }
+
+    /**
+     * Returns the formatted timestamp of a message, formatting it on first use only.
+     *
+     * @param chatMessage Message whose timestamp is shown
+     * @return Formatted timestamp
+     */
+    private static String formattedTimestampOf(ChatMessage chatMessage) {
+        if (chatMessage.formattedTimestamp == null) {
+            chatMessage.formattedTimestamp = MessageTimeFormatter.format(chatMessage.timestamp);
         }
+        return chatMessage.formattedTimestamp;
     }
 
     /**
@@ -104,6 +190,7 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     static class SentMessageViewHolder extends RecyclerView.ViewHolder {
 
         private final ItemContainerSentMessageBinding binding;
+        private ChatMessage boundMessage;
 
         public SentMessageViewHolder(ItemContainerSentMessageBinding itemContainerSentMessageBinding) {
             super(itemContainerSentMessageBinding.getRoot());
@@ -112,12 +199,27 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
         /**
          * Binds message data to the sent message layout.
+         * Messages the outbox has not sent yet are shown as pending.
+         * Rebinding the message that is already shown does nothing.
          *
          * @param chatMessage Message data to display
          */
         void setData(ChatMessage chatMessage) {
-            binding.textMessage.setText(chatMessage.message);
-            binding.textDateTime.setText(chatMessage.dateTime);
+            if (chatMessage == boundMessage) {
+                return;
+            }
+            boundMessage = chatMessage;
+            setMessageText(binding.textMessage, chatMessage);
+            if (chatMessage.isPending) {
+                binding.textDateTime.setText(R.string.sending);
+                binding.textMessage.setAlpha(PENDING_ALPHA);
+            } else if (chatMessage.isFailed) {
+                binding.textDateTime.setText(R.string.not_sent);
+                binding.textMessage.setAlpha(PENDING_ALPHA);
+            } else {
+                binding.textDateTime.setText(formattedTimestampOf(chatMessage));
+                binding.textMessage.setAlpha(1f);
+            }
         }
     }
 
@@ -129,6 +231,8 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     static class ReceiverMessageViewHolder extends RecyclerView.ViewHolder {
 
         private final ItemContainerReceivedMessageBinding binding;
+        private ChatMessage boundMessage;
+        private Bitmap boundProfileImage;
 
         public ReceiverMessageViewHolder(ItemContainerReceivedMessageBinding
                                                  itemContainerReceivedMessageBinding) {
@@ -138,14 +242,23 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
         /**
          * Binds message data and profile image to the received message layout.
+         * The profile image is the same for every row, so it is only set when it changed,
+         * and rebinding the message that is already shown leaves the text untouched.
          *
          * @param chatMessage Message data to display
          * @param receiverProfileImage Profile image of the message sender
          */
         void setData(ChatMessage chatMessage, Bitmap receiverProfileImage) {
-            binding.textMessage.setText(chatMessage.message);
-            binding.textDateTime.setText(chatMessage.dateTime);
-            binding.imageProfile.setImageBitmap(receiverProfileImage);
+            if (receiverProfileImage != boundProfileImage) {
+                boundProfileImage = receiverProfileImage;
+                binding.imageProfile.setImageBitmap(receiverProfileImage);
+            }
+            if (chatMessage == boundMessage) {
+                return;
+            }
+            boundMessage = chatMessage;
+            setMessageText(binding.textMessage, chatMessage);
+            binding.textDateTime.setText(formattedTimestampOf(chatMessage));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package com.example.cslab4.adapters;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.cslab4.databinding.ItemContainerRecentConversationBinding;
+import com.example.cslab4.listeners.ConversationListener;
+import com.example.cslab4.models.Conversation;
+import com.example.cslab4.utilities.AvatarCache;
+import com.example.cslab4.utilities.Constants;
+
+/**
+ * Adapter class for displaying the signed-in user's recent conversations in a RecyclerView.
+ * Shows the other participant, the last message and the unread count of each conversation.
+ * Binding wires no new listeners and skips rows that already show the bound conversation.
+ * Supports click interactions through ConversationListener interface.
+ */
+public class RecentConversationsAdapter
+        extends ListAdapter<Conversation, RecentConversationsAdapter.ConversationViewHolder> {
+
+    private final ConversationListener conversationListener;
+
+    /**
+     * Identifies conversations by ID and compares their full summary.
+     */
+    private static final DiffUtil.ItemCallback<Conversation> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<Conversation>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull Conversation oldItem, @NonNull Conversation newItem) {
+                    return oldItem.id.equals(newItem.id);
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull Conversation oldItem, @NonNull Conversation newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    /**
+     * Constructs a new RecentConversationsAdapter.
+     * Conversations are supplied later through {@link #submitList}.
+     *
+     * @param conversationListener Listener for conversation selection events
+     */
+    public RecentConversationsAdapter(ConversationListener conversationListener) {
+        super(DIFF_CALLBACK);
+        this.conversationListener = conversationListener;
+    }
+
+    @NonNull
+    @Override
+    public ConversationViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ConversationViewHolder(ItemContainerRecentConversationBinding
+                .inflate(LayoutInflater.from(parent.getContext()), parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ConversationViewHolder holder, int position) {
+        holder.setData(getItem(position));
+    }
+
+    class ConversationViewHolder extends RecyclerView.ViewHolder {
+        private final ItemContainerRecentConversationBinding binding;
+        private final AvatarCache avatarCache;
+        private Conversation boundConversation;
+
+        /**
+         * ViewHolder class for conversation items.
+         * Handles the layout and data binding for individual conversation entries.
+         * The click listener is created once here and reports whichever conversation is bound.
+         */
+        ConversationViewHolder(ItemContainerRecentConversationBinding itemContainerRecentConversationBinding) {
+            super(itemContainerRecentConversationBinding.getRoot());
+            binding = itemContainerRecentConversationBinding;
+            avatarCache = AvatarCache.getInstance(binding.getRoot().getContext());
+            binding.getRoot().setOnClickListener(v -> {
+                if (boundConversation != null) {
+                    conversationListener.onConversationClicked(boundConversation);
+                }
+            });
+        }
+
+        /**
+         * Binds conversation data to the view elements.
+         * The avatar comes from the shared avatar cache, so it is decoded at most once.
+         * Rebinding the conversation that is already shown does nothing.
+         *
+         * @param conversation Conversation summary to display
+         */
+        void setData(Conversation conversation) {
+            if (conversation == boundConversation) {
+                return;
+            }
+            boundConversation = conversation;
+            binding.textName.setText(conversation.receiverName);
+            binding.textRecentMessage.setText(conversation.lastMessage);
+            if (conversation.unreadCount > 0) {
+                binding.textUnreadCount.setText(String.valueOf(conversation.unreadCount));
+                binding.textUnreadCount.setVisibility(View.VISIBLE);
+            } else {
+                binding.textUnreadCount.setVisibility(View.GONE);
+            }
+            avatarCache.loadInto(binding.imageProfile, conversation.receiverImageHash,
+                    Constants.KEY_AVATAR_THUMBNAIL);
+        }
+    }
+}
@@ -1,39 +1,55 @@
 package com.example.cslab4.adapters;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.util.Base64;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.example.cslab4.activities.UserActivity;
 import com.example.cslab4.databinding.ItemContainerUserBinding;
 import com.example.cslab4.listeners.UserListener;
 import com.example.cslab4.models.User;
-
-import java.util.List;
+import com.example.cslab4.utilities.AvatarCache;
+import com.example.cslab4.utilities.Constants;
 
 /**
  * Adapter class for displaying user list in a RecyclerView.
  * Handles the display of user profiles including names, emails, and profile images.
+ * Users are supplied as whole pages through {@link #submitList}, and only rows that
+ * actually changed are rebound. Binding wires no new listeners and skips rows that
+ * already show the bound user.
  * Supports click interactions through UserListener interface.
  */
-public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UsersViewHolder>{
+public class UsersAdapter extends ListAdapter<User, UsersAdapter.UsersViewHolder> {
 
-    private final List<User> users;
     private final UserListener userListener;
 
+    /**
+     * Identifies users by ID and compares their full profile.
+     */
+    private static final DiffUtil.ItemCallback<User> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<User>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull User oldItem, @NonNull User newItem) {
+                    return oldItem.id.equals(newItem.id);
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull User oldItem, @NonNull User newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
     /**
      * Constructs a new UsersAdapter.
+     * Users are supplied later through {@link #submitList}.
      *
-     * @param users List of users to display
      * @param userListener Listener for user selection events
      */
-    public UsersAdapter(List<User> users, UserActivity userListener) {
-        this.users = users;
+    public UsersAdapter(UserListener userListener) {
+        super(DIFF_CALLBACK);
         this.userListener = userListener;
     }
 
@@ -49,58 +65,45 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UsersViewHol
 
     @Override
     public void onBindViewHolder(@NonNull UsersViewHolder holder, int position) {
-        holder.setUserData(users.get(position));
-    }
-
-    @Override
-    public int getItemCount() {
-        return users.size();
+        holder.setUserData(getItem(position));
     }
 
     class UsersViewHolder extends RecyclerView.ViewHolder {
         ItemContainerUserBinding binding;
+        private final AvatarCache avatarCache;
+        private User boundUser;
 
         /**
          * ViewHolder class for user items.
          * Handles the layout and data binding for individual user entries.
+         * The click listener is created once here and reports whichever user is bound.
          */
         public UsersViewHolder(ItemContainerUserBinding itemContainerUserBinding) {
             super(itemContainerUserBinding.getRoot());
             binding = itemContainerUserBinding;
+            avatarCache = AvatarCache.getInstance(binding.getRoot().getContext());
+            binding.getRoot().setOnClickListener(v -> {
+                if (boundUser != null) {
+                    userListener.onUserClicked(boundUser);
+                }
+            });
         }
 
         /**
          * Binds user data to the view elements.
-         * Sets up click listener for user selection.
+         * The avatar comes from the shared avatar cache, so it is decoded at most once.
+         * Rebinding the user that is already shown does nothing.
          *
          * @param user User data to display
          */
         void setUserData(User user) {
+            if (user == boundUser) {
+                return;
+            }
+            boundUser = user;
             binding.textName.setText(user.name);
             binding.textEmail.setText(user.email);
-            Bitmap userImage = getUserImage(user.image);
-            if (userImage != null) {
-                binding.imageProfile.setImageBitmap(userImage);
-            }
-            binding.getRoot().setOnClickListener(v -> userListener.onUserClicked(user));
-        }
-    }
-    /**
-     * Converts a Base64 encoded image string to a Bitmap.
-     * Handles null and invalid encoded strings safely.
-     *
-     * @param encodedImage Base64 encoded string of the image
-     * @return Bitmap of the decoded image, or null if conversion fails
-     */
-    private Bitmap getUserImage(String encodedImage) {
-        if (encodedImage == null) {
-            return null;
-        }
-        try {
-            byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
-            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-        } catch (IllegalArgumentException e) {
-            return null;
+            avatarCache.loadInto(binding.imageProfile, user.imageHash, Constants.KEY_AVATAR_THUMBNAIL);
         }
     }
 }
@@ -0,0 +1,144 @@
+package com.example.cslab4.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * SQLite helper that owns the application's local database.
+ * Holds the persistent copy of chat messages and of the user directory so
+ * screens can render from disk before, or without, a network round trip,
+ * plus how far each conversation has been synced.
+ */
+public class ChatDatabase extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "chat.db";
+    private static final int DATABASE_VERSION = 3;
+
+    // Table and column names for stored messages
+    static final String TABLE_MESSAGES = "messages";
+    static final String COLUMN_DOC_ID = "doc_id";
+    static final String COLUMN_CONVERSATION_ID = "conversation_id";
+    static final String COLUMN_SENDER_ID = "sender_id";
+    static final String COLUMN_RECEIVER_ID = "receiver_id";
+    static final String COLUMN_BODY = "body";
+    static final String COLUMN_TIMESTAMP = "timestamp";
+    static final String COLUMN_SYNC_STATE = "sync_state";
+
+    // Table and column names for the cached user directory
+    static final String TABLE_USERS = "users";
+    static final String COLUMN_USER_ID = "user_id";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_EMAIL = "email";
+    static final String COLUMN_IMAGE_HASH = "image_hash";
+    static final String COLUMN_TOKEN = "token";
+    static final String COLUMN_UPDATED_AT = "updated_at";
+
+    // Table and column names for per-conversation sync progress
+    static final String TABLE_SYNC_MARKS = "sync_marks";
+    static final String COLUMN_SYNCED_UNTIL = "synced_until";
+
+    private static ChatDatabase instance;
+
+    private ChatDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Returns the process-wide database helper.
+     *
+     * @param context Any context; the application context is retained
+     * @return Shared ChatDatabase
+     */
+    public static synchronized ChatDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChatDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Deletes every stored message, user and sync mark, for example when the user signs
+     * out, so the next user neither sees nor sends anything of the previous one.
+     * Must be called off the main thread.
+     */
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_MESSAGES, null, null);
+            db.delete(TABLE_USERS, null, null);
+            db.delete(TABLE_SYNC_MARKS, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Creates the messages table and the index used to read a conversation in order,
+     * then the user directory and sync progress tables.
+     *
+     * @param db Database being created
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " ("
+                + COLUMN_DOC_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_CONVERSATION_ID + " TEXT NOT NULL, "
+                + COLUMN_SENDER_ID + " TEXT, "
+                + COLUMN_RECEIVER_ID + " TEXT, "
+                + COLUMN_BODY + " TEXT, "
+                + COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + COLUMN_SYNC_STATE + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX index_messages_conversation_timestamp ON " + TABLE_MESSAGES
+                + " (" + COLUMN_CONVERSATION_ID + ", " + COLUMN_TIMESTAMP + ")");
+        createUserTables(db);
+        createSyncMarkTable(db);
+    }
+
+    /**
+     * Upgrades the schema one version at a time.
+     *
+     * @param db Database being upgraded
+     * @param oldVersion Version of the existing schema
+     * @param newVersion Version of the current schema
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createUserTables(db);
+        }
+        if (oldVersion < 3) {
+            createSyncMarkTable(db);
+        }
+    }
+
+    /**
+     * Creates the user directory table with indexes for listing by name and
+     * for finding the newest synced change.
+     */
+    private static void createUserTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_USERS + " ("
+                + COLUMN_USER_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_NAME + " TEXT, "
+                + COLUMN_EMAIL + " TEXT, "
+                + COLUMN_IMAGE_HASH + " TEXT, "
+                + COLUMN_TOKEN + " TEXT, "
+                + COLUMN_UPDATED_AT + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX index_users_name ON " + TABLE_USERS
+                + " (" + COLUMN_NAME + " COLLATE NOCASE, " + COLUMN_USER_ID + ")");
+        db.execSQL("CREATE INDEX index_users_updated_at ON " + TABLE_USERS
+                + " (" + COLUMN_UPDATED_AT + ", " + COLUMN_USER_ID + ")");
+    }
+
+    /**
+     * Creates the table holding each conversation's high-water mark: the timestamp up to
+     * which its stored messages are known to match Firestore.
+     */
+    private static void createSyncMarkTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_MARKS + " ("
+                + COLUMN_CONVERSATION_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_SYNCED_UNTIL + " INTEGER NOT NULL)");
+    }
+}
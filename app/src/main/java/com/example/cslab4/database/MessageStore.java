@@ -0,0 +1,349 @@
+package com.example.cslab4.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.cslab4.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.cslab4.database.ChatDatabase.COLUMN_BODY;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_CONVERSATION_ID;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_DOC_ID;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_RECEIVER_ID;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_SENDER_ID;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_SYNCED_UNTIL;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_SYNC_STATE;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_TIMESTAMP;
+import static com.example.cslab4.database.ChatDatabase.TABLE_MESSAGES;
+import static com.example.cslab4.database.ChatDatabase.TABLE_SYNC_MARKS;
+
+/**
+ * Local persistent store for chat messages.
+ * Acts as the source of truth the chat screen renders from; messages received
+ * from Firestore are written through into it keyed by their document ID.
+ * All methods perform disk access and must be called off the main thread.
+ */
+public class MessageStore {
+
+    // Sync states of a stored message
+    public static final int SYNC_STATE_SYNCED = 0;
+    public static final int SYNC_STATE_PENDING = 1;
+    // Received through a push notification and not yet confirmed by a Firestore read
+    public static final int SYNC_STATE_PUSHED = 2;
+    // Rejected by Firestore for a reason a retry cannot fix; kept so the sender can see it
+    public static final int SYNC_STATE_FAILED = 3;
+
+    private static final String[] MESSAGE_COLUMNS = {
+            COLUMN_DOC_ID, COLUMN_SENDER_ID, COLUMN_RECEIVER_ID, COLUMN_BODY, COLUMN_TIMESTAMP,
+            COLUMN_SYNC_STATE
+    };
+
+    private final ChatDatabase chatDatabase;
+
+    /**
+     * Constructs a new MessageStore backed by the shared chat database.
+     *
+     * @param context Any context; the application context is used
+     */
+    public MessageStore(Context context) {
+        chatDatabase = ChatDatabase.getInstance(context);
+    }
+
+    /**
+     * Returns the newest messages of a conversation.
+     *
+     * @param conversationId ID of the conversation
+     * @param limit Maximum number of messages to return
+     * @return Messages in ascending timestamp order
+     */
+    public List<ChatMessage> getLatestMessages(String conversationId, int limit) {
+        return queryDescending(COLUMN_CONVERSATION_ID + " = ?",
+                new String[]{conversationId}, limit);
+    }
+
+    /**
+     * Returns the newest message of a conversation that was read from Firestore.
+     * Pushed messages are not included, since messages before them may have been missed;
+     * only synced messages mark the end of the gap-free stored history.
+     *
+     * @param conversationId ID of the conversation
+     * @return Newest synced message, or null if there is none
+     */
+    public ChatMessage getLatestSyncedMessage(String conversationId) {
+        List<ChatMessage> chatMessages = queryDescending(COLUMN_CONVERSATION_ID + " = ? AND "
+                        + COLUMN_SYNC_STATE + " = ?",
+                new String[]{conversationId, String.valueOf(SYNC_STATE_SYNCED)}, 1);
+        return chatMessages.isEmpty() ? null : chatMessages.get(0);
+    }
+
+    /**
+     * Returns the high-water mark of a conversation: the timestamp of the newest message
+     * confirmed by the server, up to which the stored messages are gap-free.
+     *
+     * @param conversationId ID of the conversation
+     * @return Mark in epoch milliseconds, or 0 if the conversation was never synced
+     */
+    public long getHighWaterMark(String conversationId) {
+        SQLiteDatabase db = chatDatabase.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_SYNC_MARKS, new String[]{COLUMN_SYNCED_UNTIL},
+                COLUMN_CONVERSATION_ID + " = ?", new String[]{conversationId}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Raises the high-water mark of a conversation. Must only be called once the messages
+     * up to the mark have been stored; a lower mark than the stored one is ignored.
+     *
+     * @param conversationId ID of the conversation
+     * @param timestamp Timestamp of the newest confirmed message in epoch milliseconds
+     */
+    public void raiseHighWaterMark(String conversationId, long timestamp) {
+        SQLiteDatabase db = chatDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CONVERSATION_ID, conversationId);
+            values.put(COLUMN_SYNCED_UNTIL, timestamp);
+            db.insertWithOnConflict(TABLE_SYNC_MARKS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            db.execSQL("UPDATE " + TABLE_SYNC_MARKS + " SET " + COLUMN_SYNCED_UNTIL
+                            + " = MAX(" + COLUMN_SYNCED_UNTIL + ", ?) WHERE " + COLUMN_CONVERSATION_ID + " = ?",
+                    new Object[]{timestamp, conversationId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Stores a message that arrived through a push notification.
+     * The message is only inserted if it is not stored yet, so it never overwrites
+     * a copy read from Firestore; the next Firestore read of the same document ID
+     * replaces it and marks it synced.
+     *
+     * @param conversationId ID of the conversation the message belongs to
+     * @param chatMessage Message to store
+     */
+    public void putPushedMessage(String conversationId, ChatMessage chatMessage) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DOC_ID, chatMessage.id);
+        values.put(COLUMN_CONVERSATION_ID, conversationId);
+        values.put(COLUMN_SENDER_ID, chatMessage.senderId);
+        values.put(COLUMN_RECEIVER_ID, chatMessage.receiverId);
+        values.put(COLUMN_BODY, chatMessage.message);
+        values.put(COLUMN_TIMESTAMP, chatMessage.timestamp);
+        values.put(COLUMN_SYNC_STATE, SYNC_STATE_PUSHED);
+        chatDatabase.getWritableDatabase().insertWithOnConflict(TABLE_MESSAGES, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Writes the newest page of a conversation read from Firestore into the store.
+     * The store only ever holds a gap-free range of the conversation that ends at the
+     * newest synced message; if the page does not overlap what was stored, the older
+     * stored messages are dropped. Once stored, the page's newest confirmed message
+     * becomes the conversation's high-water mark.
+     *
+     * @param conversationId ID of the conversation
+     * @param newestPage Newest messages in ascending timestamp order
+     * @param isCompleteConversation true if the page holds the whole conversation
+     * @param confirmedUntil Timestamp of the page's newest confirmed message, or 0
+     * @return true if the page continued the stored messages, false if older ones were dropped
+     */
+    public boolean putNewestPage(String conversationId, List<ChatMessage> newestPage,
+                                 boolean isCompleteConversation, long confirmedUntil) {
+        boolean isContiguous = isCompleteConversation || newestPage.isEmpty();
+        if (!isContiguous) {
+            ChatMessage newestStored = getLatestSyncedMessage(conversationId);
+            isContiguous = newestStored == null || newestStored.timestamp >= newestPage.get(0).timestamp;
+            if (!isContiguous) {
+                deleteMessagesBefore(conversationId, newestPage.get(0).timestamp);
+            }
+        }
+        putMessages(conversationId, newestPage);
+        if (confirmedUntil > 0) {
+            raiseHighWaterMark(conversationId, confirmedUntil);
+        }
+        return isContiguous;
+    }
+
+    /**
+     * Returns the messages of a conversation that sort before the given message.
+     * Messages are ordered by timestamp and then by document ID, like the chat screen,
+     * so messages sharing the given message's millisecond are not skipped.
+     *
+     * @param conversationId ID of the conversation
+     * @param timestamp Timestamp of the oldest message loaded so far, in epoch milliseconds
+     * @param messageId Document ID of that message
+     * @param limit Maximum number of messages to return
+     * @return Messages in ascending timestamp order
+     */
+    public List<ChatMessage> getMessagesBefore(String conversationId, long timestamp, String messageId, int limit) {
+        return queryDescending(COLUMN_CONVERSATION_ID + " = ? AND (" + COLUMN_TIMESTAMP + " < ? OR ("
+                        + COLUMN_TIMESTAMP + " = ? AND " + COLUMN_DOC_ID + " < ?))",
+                new String[]{conversationId, String.valueOf(timestamp), String.valueOf(timestamp), messageId},
+                limit);
+    }
+
+    /**
+     * Writes messages into the store in a single transaction.
+     * Synced messages replace any existing row with the same document ID, so writing
+     * the same Firestore change twice never creates a duplicate. Pending messages are
+     * only inserted if the row does not exist yet, so a stale local echo can never
+     * turn an already confirmed message back into a pending one.
+     *
+     * @param conversationId ID of the conversation the messages belong to
+     * @param chatMessages Messages to store
+     */
+    public void putMessages(String conversationId, List<ChatMessage> chatMessages) {
+        SQLiteDatabase db = chatDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (ChatMessage chatMessage : chatMessages) {
+                values.clear();
+                values.put(COLUMN_DOC_ID, chatMessage.id);
+                values.put(COLUMN_CONVERSATION_ID, conversationId);
+                values.put(COLUMN_SENDER_ID, chatMessage.senderId);
+                values.put(COLUMN_RECEIVER_ID, chatMessage.receiverId);
+                values.put(COLUMN_BODY, chatMessage.message);
+                values.put(COLUMN_TIMESTAMP, chatMessage.timestamp);
+                values.put(COLUMN_SYNC_STATE,
+                        chatMessage.isPending ? SYNC_STATE_PENDING : SYNC_STATE_SYNCED);
+                db.insertWithOnConflict(TABLE_MESSAGES, null, values, chatMessage.isPending
+                        ? SQLiteDatabase.CONFLICT_IGNORE : SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the oldest messages, across all conversations, that have not been
+     * confirmed by Firestore yet.
+     *
+     * @param limit Maximum number of messages to return
+     * @return Pending messages in ascending timestamp order
+     */
+    public List<ChatMessage> getPendingMessages(int limit) {
+        SQLiteDatabase db = chatDatabase.getReadableDatabase();
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_MESSAGES, MESSAGE_COLUMNS,
+                COLUMN_SYNC_STATE + " = ?", new String[]{String.valueOf(SYNC_STATE_PENDING)},
+                null, null, COLUMN_TIMESTAMP + " ASC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                chatMessages.add(readMessage(cursor));
+            }
+        }
+        return chatMessages;
+    }
+
+    /**
+     * Marks messages as confirmed by Firestore.
+     *
+     * @param messageIds Document IDs of the confirmed messages
+     */
+    public void markSynced(List<String> messageIds) {
+        updateSyncState(messageIds, SYNC_STATE_SYNCED);
+    }
+
+    /**
+     * Marks pending messages as rejected by Firestore, so the outbox stops retrying them.
+     *
+     * @param messageIds Document IDs of the rejected messages
+     */
+    public void markFailed(List<String> messageIds) {
+        updateSyncState(messageIds, SYNC_STATE_FAILED);
+    }
+
+    /**
+     * Sets the sync state of individual messages in one transaction.
+     */
+    private void updateSyncState(List<String> messageIds, int syncState) {
+        SQLiteDatabase db = chatDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_SYNC_STATE, syncState);
+            for (String messageId : messageIds) {
+                db.update(TABLE_MESSAGES, values, COLUMN_DOC_ID + " = ?", new String[]{messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes individual messages, for example after they were removed in Firestore.
+     *
+     * @param messageIds Document IDs of the messages to delete
+     */
+    public void deleteMessages(List<String> messageIds) {
+        SQLiteDatabase db = chatDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String messageId : messageIds) {
+                db.delete(TABLE_MESSAGES, COLUMN_DOC_ID + " = ?", new String[]{messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the messages of a conversation that are older than the given timestamp.
+     * Used to drop stored history that is no longer contiguous with the synced messages.
+     * Pending messages are kept, since the outbox still has to send them,
+     * and so are failed ones, which exist nowhere else.
+     *
+     * @param conversationId ID of the conversation
+     * @param timestamp Exclusive upper bound in epoch milliseconds
+     */
+    public void deleteMessagesBefore(String conversationId, long timestamp) {
+        chatDatabase.getWritableDatabase().delete(TABLE_MESSAGES,
+                COLUMN_CONVERSATION_ID + " = ? AND " + COLUMN_TIMESTAMP + " < ? AND "
+                        + COLUMN_SYNC_STATE + " NOT IN (?, ?)",
+                new String[]{conversationId, String.valueOf(timestamp), String.valueOf(SYNC_STATE_PENDING),
+                        String.valueOf(SYNC_STATE_FAILED)});
+    }
+
+    /**
+     * Runs a newest-first query and returns the rows in ascending timestamp order,
+     * with ties ordered by document ID.
+     */
+    private List<ChatMessage> queryDescending(String selection, String[] selectionArgs, int limit) {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        SQLiteDatabase db = chatDatabase.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_MESSAGES, MESSAGE_COLUMNS, selection, selectionArgs,
+                null, null, COLUMN_TIMESTAMP + " DESC, " + COLUMN_DOC_ID + " DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                chatMessages.add(readMessage(cursor));
+            }
+        }
+        Collections.reverse(chatMessages);
+        return chatMessages;
+    }
+
+    /**
+     * Creates a chat message from the current row of a cursor over {@link #MESSAGE_COLUMNS}.
+     */
+    private static ChatMessage readMessage(Cursor cursor) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = cursor.getString(0);
+        chatMessage.senderId = cursor.getString(1);
+        chatMessage.receiverId = cursor.getString(2);
+        chatMessage.message = cursor.getString(3);
+        chatMessage.timestamp = cursor.getLong(4);
+        chatMessage.isPending = cursor.getInt(5) == SYNC_STATE_PENDING;
+        chatMessage.isFailed = cursor.getInt(5) == SYNC_STATE_FAILED;
+        return chatMessage;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.cslab4.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.cslab4.models.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.cslab4.database.ChatDatabase.COLUMN_EMAIL;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_IMAGE_HASH;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_NAME;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_TOKEN;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_UPDATED_AT;
+import static com.example.cslab4.database.ChatDatabase.COLUMN_USER_ID;
+import static com.example.cslab4.database.ChatDatabase.TABLE_USERS;
+
+/**
+ * Local persistent copy of the user directory.
+ * The directory screen renders from this store, and only users changed since the
+ * newest stored change are downloaded from Firestore.
+ * All methods perform disk access and must be called off the main thread.
+ */
+public class UserStore {
+
+    private static final String[] USER_COLUMNS = {
+            COLUMN_USER_ID, COLUMN_NAME, COLUMN_EMAIL, COLUMN_IMAGE_HASH, COLUMN_TOKEN, COLUMN_UPDATED_AT
+    };
+
+    private final ChatDatabase chatDatabase;
+
+    /**
+     * Constructs a new UserStore backed by the shared chat database.
+     *
+     * @param context Any context; the application context is used
+     */
+    public UserStore(Context context) {
+        chatDatabase = ChatDatabase.getInstance(context);
+    }
+
+    /**
+     * Returns the first users of the directory in name order.
+     *
+     * @param excludedUserId ID of a user to leave out, usually the signed-in user
+     * @param limit Maximum number of users to return
+     * @return Users ordered by name, then by ID
+     */
+    public List<User> getUsers(String excludedUserId, int limit) {
+        return queryByName(excludedUserId, String.valueOf(limit));
+    }
+
+    /**
+     * Returns every stored user in name order, for example to build a search index.
+     *
+     * @param excludedUserId ID of a user to leave out, usually the signed-in user
+     * @return Users ordered by name, then by ID
+     */
+    public List<User> getAllUsers(String excludedUserId) {
+        return queryByName(excludedUserId, null);
+    }
+
+    /**
+     * Runs a query over all users but one, in name order.
+     */
+    private List<User> queryByName(String excludedUserId, String limit) {
+        List<User> users = new ArrayList<>();
+        SQLiteDatabase db = chatDatabase.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_USERS, USER_COLUMNS,
+                COLUMN_USER_ID + " != ?", new String[]{excludedUserId == null ? "" : excludedUserId},
+                null, null, COLUMN_NAME + " COLLATE NOCASE ASC, " + COLUMN_USER_ID + " ASC",
+                limit)) {
+            while (cursor.moveToNext()) {
+                users.add(readUser(cursor));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Returns a stored user by ID.
+     *
+     * @param userId ID of the user
+     * @return Stored user, or null if the user has not been synced yet
+     */
+    public User getUser(String userId) {
+        SQLiteDatabase db = chatDatabase.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_USERS, USER_COLUMNS, COLUMN_USER_ID + " = ?",
+                new String[]{userId}, null, null, null, "1")) {
+            return cursor.moveToFirst() ? readUser(cursor) : null;
+        }
+    }
+
+    /**
+     * Returns the most recently changed stored user.
+     * Its change time and ID form the cursor from which the next sync continues.
+     *
+     * @return Most recently changed user, or null if the store is empty
+     */
+    public User getNewestChange() {
+        SQLiteDatabase db = chatDatabase.getReadableDatabase();
+        try (Cursor cursor = db.query(TABLE_USERS, USER_COLUMNS, null, null, null, null,
+                COLUMN_UPDATED_AT + " DESC, " + COLUMN_USER_ID + " DESC", "1")) {
+            return cursor.moveToFirst() ? readUser(cursor) : null;
+        }
+    }
+
+    /**
+     * Writes users into the store in a single transaction, replacing stored copies.
+     *
+     * @param users Users to store
+     */
+    public void putUsers(List<User> users) {
+        SQLiteDatabase db = chatDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (User user : users) {
+                values.clear();
+                values.put(COLUMN_USER_ID, user.id);
+                values.put(COLUMN_NAME, user.name);
+                values.put(COLUMN_EMAIL, user.email);
+                values.put(COLUMN_IMAGE_HASH, user.imageHash);
+                values.put(COLUMN_TOKEN, user.token);
+                values.put(COLUMN_UPDATED_AT, user.updatedAt);
+                db.insertWithOnConflict(TABLE_USERS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Creates a user from the current row of a cursor over {@link #USER_COLUMNS}.
+     */
+    private static User readUser(Cursor cursor) {
+        User user = new User();
+        user.id = cursor.getString(0);
+        user.name = cursor.getString(1);
+        user.email = cursor.getString(2);
+        user.imageHash = cursor.getString(3);
+        user.token = cursor.getString(4);
+        user.updatedAt = cursor.getLong(5);
+        return user;
+    }
+}
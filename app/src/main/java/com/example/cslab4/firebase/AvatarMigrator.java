@@ -0,0 +1,107 @@
+package com.example.cslab4.firebase;
+
+import com.example.cslab4.utilities.AvatarDiskCache;
+import com.example.cslab4.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One-off migration that moves profile images out of user documents.
+ * Every user document that still carries an inline Base64 image has that image copied
+ * to the avatars collection under its content hash, gains the hash reference and loses
+ * the inline image, all in one batch per page. User documents written before change
+ * times existed also gain an updatedAt time, so directory syncs include them. Documents that were already migrated are
+ * skipped, so the migration can be interrupted and run again safely.
+ * The migrator takes the Firestore instance to work on, so it can be pointed at the
+ * local emulator before touching production data:
+ * <pre>
+ * FirebaseFirestore emulator = FirebaseFirestore.getInstance();
+ * emulator.useEmulator("10.0.2.2", 8080);
+ * new AvatarMigrator(emulator).migrate()
+ *         .addOnSuccessListener(count -&gt; Log.d(TAG, "Migrated " + count + " users"));
+ * </pre>
+ */
+public class AvatarMigrator {
+
+    // Each migrated user takes two writes, well within the 500 write batch limit
+    private static final int PAGE_SIZE = 100;
+
+    private final FirebaseFirestore database;
+
+    /**
+     * Constructs a new AvatarMigrator.
+     *
+     * @param database Firestore instance to migrate, for example one connected to the emulator
+     */
+    public AvatarMigrator(FirebaseFirestore database) {
+        this.database = database;
+    }
+
+    /**
+     * Migrates all user documents, one page at a time.
+     *
+     * @return Task resolving to the number of user documents migrated
+     */
+    public Task<Integer> migrate() {
+        return migratePage(null, 0);
+    }
+
+    /**
+     * Migrates the page of users after the given document, then continues with the next page.
+     */
+    private Task<Integer> migratePage(DocumentSnapshot after, int migratedSoFar) {
+        Query query = database.collection(Constants.KEY_COLLECTION_USERS)
+                .orderBy(FieldPath.documentId())
+                .limit(PAGE_SIZE);
+        if (after != null) {
+            query = query.startAfter(after);
+        }
+        return query.get().continueWithTask(task -> {
+            QuerySnapshot page = task.getResult();
+            List<DocumentSnapshot> documents = page.getDocuments();
+            WriteBatch batch = database.batch();
+            int migrated = 0;
+            for (DocumentSnapshot document : documents) {
+                String encodedImage = document.getString(Constants.KEY_IMAGE);
+                boolean hasInlineImage = encodedImage != null && !document.contains(Constants.KEY_IMAGE_HASH);
+                boolean hasUpdatedAt = document.contains(Constants.KEY_UPDATED_AT);
+                if (!hasInlineImage && hasUpdatedAt) {
+                    continue;
+                }
+                Map<String, Object> updates = new HashMap<>();
+                if (hasInlineImage) {
+                    String imageHash = AvatarDiskCache.hashOf(encodedImage);
+                    Map<String, Object> avatar = new HashMap<>();
+                    avatar.put(Constants.KEY_IMAGE, encodedImage);
+                    batch.set(database.collection(Constants.KEY_COLLECTION_AVATARS).document(imageHash), avatar);
+                    updates.put(Constants.KEY_IMAGE_HASH, imageHash);
+                    updates.put(Constants.KEY_IMAGE, FieldValue.delete());
+                }
+                // Users without a change time would never be picked up by directory syncs
+                updates.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
+                batch.update(document.getReference(), updates);
+                migrated++;
+            }
+            int total = migratedSoFar + migrated;
+            Task<Void> commit = migrated > 0 ? batch.commit() : Tasks.forResult(null);
+            return commit.continueWithTask(unused -> {
+                unused.getResult(); // Propagate commit failures
+                if (documents.size() < PAGE_SIZE) {
+                    return Tasks.forResult(total);
+                }
+                return migratePage(documents.get(documents.size() - 1), total);
+            });
+        });
+    }
+}
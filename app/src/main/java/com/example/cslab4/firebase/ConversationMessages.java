@@ -0,0 +1,327 @@
+package com.example.cslab4.firebase;
+
+import android.util.Log;
+
+import com.example.cslab4.models.ChatMessage;
+import com.example.cslab4.utilities.AppExecutors;
+import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.ConversationUtils;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.Filter;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Firestore location of the messages of one conversation.
+ * Messages live in the conversation's own subcollection,
+ * conversations/{conversationId}/messages, so reading a conversation only needs the
+ * single-field timestamp index and never scans other users' messages.
+ * Messages written before the subcollections existed are copied over by the
+ * {@link MessageMigrator}. Until that backfill has run against every deployment,
+ * history pages are read from both the subcollection and the legacy flat chat
+ * collection and merged by document ID, which the migrator preserves, and the chat
+ * screen also listens to the legacy collection's live tail, where peers still running
+ * an older build keep writing.
+ * Turning the dual-read period off:
+ * <ol>
+ * <li>Wait until no client older than the subcollection schema is in use, so nothing
+ * writes to the legacy collection any more.</li>
+ * <li>Run {@code new MessageMigrator(database).migrate()} once more from the beginning.
+ * Copies keep their document IDs, so messages copied by an earlier run are rewritten
+ * unchanged and messages written to the legacy collection since then are added.</li>
+ * <li>Set {@link #READ_LEGACY_MESSAGES} to false.</li>
+ * <li>Once no build reading the legacy collection is in use, remove the legacy
+ * queries, the chat collection's indexes and the collection itself.</li>
+ * </ol>
+ * The README describes running the migrator against the emulator first.
+ */
+public class ConversationMessages {
+
+    private static final String TAG = "ConversationMessages";
+
+    // Number of messages in a page of history
+    public static final int PAGE_SIZE = 30;
+
+    // Read history from the legacy chat collection as well, until the backfill is complete
+    private static final boolean READ_LEGACY_MESSAGES = true;
+
+    // Orders message documents by timestamp, using the local estimate of pending server timestamps,
+    // and by document ID within the same timestamp, like Firestore itself
+    private static final Comparator<DocumentSnapshot> TIMESTAMP_ORDER = (first, second) -> {
+        int order = timestampOf(first).compareTo(timestampOf(second));
+        return order != 0 ? order : first.getId().compareTo(second.getId());
+    };
+
+    private final FirebaseFirestore database;
+    private final String firstUserId;
+    private final String secondUserId;
+    private final CollectionReference messages;
+
+    /**
+     * Constructs the message location of the conversation between two users.
+     *
+     * @param database Firestore instance to read from
+     * @param firstUserId ID of one participant
+     * @param secondUserId ID of the other participant
+     */
+    public ConversationMessages(FirebaseFirestore database, String firstUserId, String secondUserId) {
+        this.database = database;
+        this.firstUserId = firstUserId;
+        this.secondUserId = secondUserId;
+        messages = collectionOf(database, ConversationUtils.getConversationId(firstUserId, secondUserId));
+    }
+
+    /**
+     * Returns the message subcollection of a conversation.
+     *
+     * @param database Firestore instance
+     * @param conversationId ID of the conversation
+     * @return Collection holding the conversation's messages
+     */
+    public static CollectionReference collectionOf(FirebaseFirestore database, String conversationId) {
+        return database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .document(conversationId)
+                .collection(Constants.KEY_COLLECTION_MESSAGES);
+    }
+
+    /**
+     * Returns the timestamp of a message document, using the local estimate
+     * until a pending server timestamp has been resolved.
+     *
+     * @param documentSnapshot Message document
+     * @return Timestamp, or null if the document has none or holds something else in its place
+     */
+    public static Timestamp timestampOf(DocumentSnapshot documentSnapshot) {
+        Object timestamp = documentSnapshot.get(Constants.KEY_TIMESTAMP,
+                DocumentSnapshot.ServerTimestampBehavior.ESTIMATE);
+        return timestamp instanceof Timestamp ? (Timestamp) timestamp : null;
+    }
+
+    /**
+     * Creates a chat message from a Firestore message document.
+     * Documents without a valid timestamp, which the legacy collection may hold,
+     * cannot be placed in the conversation and yield null.
+     * Safe to call off the main thread.
+     *
+     * @param documentSnapshot Message document
+     * @return Chat message holding the document's data, or null if it has no timestamp
+     */
+    public static ChatMessage toChatMessage(DocumentSnapshot documentSnapshot) {
+        Timestamp timestamp = timestampOf(documentSnapshot);
+        if (timestamp == null) {
+            Log.w(TAG, "Skipping message " + documentSnapshot.getId() + " without a timestamp");
+            return null;
+        }
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = documentSnapshot.getId();
+        chatMessage.senderId = documentSnapshot.getString(Constants.KEY_SENDER_ID);
+        chatMessage.receiverId = documentSnapshot.getString(Constants.KEY_RECEIVER_ID);
+        chatMessage.message = documentSnapshot.getString(Constants.KEY_MESSAGE);
+        chatMessage.timestamp = timestamp.toDate().getTime();
+        chatMessage.isPending = documentSnapshot.getMetadata().hasPendingWrites();
+        return chatMessage;
+    }
+
+    /**
+     * Returns the timestamp of the newest message in a result that the server confirmed,
+     * which may become the conversation's high-water mark. Results served from the local
+     * Firestore cache may be incomplete, so they confirm nothing.
+     *
+     * @param documents Message documents in ascending timestamp order
+     * @param isFromCache true if the whole result was served from the Firestore cache
+     * @return Timestamp in epoch milliseconds, or 0 if nothing was confirmed
+     */
+    public static long confirmedUntil(List<DocumentSnapshot> documents, boolean isFromCache) {
+        DocumentSnapshot newest = isFromCache ? null : SnapshotSubscription.newestCommitted(documents);
+        if (newest == null || newest.getMetadata().isFromCache()) {
+            return 0;
+        }
+        Timestamp timestamp = timestampOf(newest);
+        return timestamp != null ? timestamp.toDate().getTime() : 0;
+    }
+
+    /**
+     * Returns all messages of the conversation's subcollection in timestamp order.
+     * Used for live queries, which only need messages written after the migration.
+     *
+     * @return Ordered query over the subcollection
+     */
+    public Query query() {
+        return messages.orderBy(Constants.KEY_TIMESTAMP);
+    }
+
+    /**
+     * Fetches the newest messages of the conversation.
+     *
+     * @param limit Maximum number of messages
+     * @return Task resolving to the newest messages in ascending timestamp order
+     */
+    public Task<List<DocumentSnapshot>> getLatest(int limit) {
+        return read(query().limitToLast(limit), legacyQuery().limitToLast(limit), limit);
+    }
+
+    /**
+     * Fetches the messages immediately before a given message.
+     * Pages are keyed on the message's exact server timestamp and document ID, so messages
+     * sharing the same millisecond, or even the same timestamp, are never skipped.
+     *
+     * @param before Timestamp of the oldest message loaded so far, in epoch milliseconds
+     * @param beforeMessageId Document ID of that message
+     * @param limit Maximum number of messages
+     * @return Task resolving to the messages in ascending timestamp order
+     */
+    public Task<List<DocumentSnapshot>> getBefore(long before, String beforeMessageId, int limit) {
+        return exactTimestampOf(beforeMessageId, before).continueWithTask(task -> {
+            Timestamp timestamp = task.getResult();
+            return read(query().orderBy(FieldPath.documentId())
+                            .endBefore(timestamp, beforeMessageId).limitToLast(limit),
+                    legacyQuery().orderBy(FieldPath.documentId())
+                            .endBefore(timestamp, beforeMessageId).limitToLast(limit),
+                    limit);
+        });
+    }
+
+    /**
+     * Looks up the server timestamp of a message at the microsecond precision Firestore
+     * orders by; the epoch milliseconds kept locally are truncated. If the message cannot
+     * be read, the last microsecond of its millisecond is used instead, so a page may
+     * repeat already loaded messages from that millisecond, which are ignored by ID,
+     * but never skips older ones.
+     *
+     * @param messageId Document ID of the message
+     * @param timestamp Timestamp of the message in epoch milliseconds
+     * @return Task resolving to the exact timestamp
+     */
+    private Task<Timestamp> exactTimestampOf(String messageId, long timestamp) {
+        return messages.document(messageId).get().continueWithTask(task -> {
+            Timestamp exact = task.isSuccessful() ? task.getResult().getTimestamp(Constants.KEY_TIMESTAMP) : null;
+            if (exact != null || !READ_LEGACY_MESSAGES) {
+                return Tasks.forResult(exact);
+            }
+            return database.collection(Constants.KEY_COLLECTION_CHAT).document(messageId).get()
+                    .continueWith(legacyTask -> legacyTask.isSuccessful()
+                            ? legacyTask.getResult().getTimestamp(Constants.KEY_TIMESTAMP) : null);
+        }).continueWith(task -> {
+            Timestamp exact = task.getResult();
+            if (exact != null) {
+                return exact;
+            }
+            return new Timestamp(Math.floorDiv(timestamp, 1000L),
+                    (int) Math.floorMod(timestamp, 1000L) * 1_000_000 + 999_000);
+        });
+    }
+
+    /**
+     * Returns whether the legacy collection is still read alongside the subcollection.
+     *
+     * @return true during the dual-read period
+     */
+    public boolean readsLegacyMessages() {
+        return READ_LEGACY_MESSAGES;
+    }
+
+    /**
+     * Keeps the documents that belong to the legacy collection.
+     * Only those can serve as a cursor for {@link #legacyQuery()}.
+     *
+     * @param documents Documents returned by this class
+     * @return Legacy documents in the same order
+     */
+    public List<DocumentSnapshot> inLegacyCollection(List<DocumentSnapshot> documents) {
+        List<DocumentSnapshot> legacyDocuments = new ArrayList<>(documents.size());
+        for (DocumentSnapshot document : documents) {
+            if (!document.getReference().getParent().getPath().equals(messages.getPath())) {
+                legacyDocuments.add(document);
+            }
+        }
+        return legacyDocuments;
+    }
+
+    /**
+     * Keeps the documents that belong to the subcollection, dropping any read from the
+     * legacy collection. Only those can serve as a cursor for {@link #query()}.
+     *
+     * @param documents Documents returned by this class
+     * @return Subcollection documents in the same order
+     */
+    public List<DocumentSnapshot> inSubcollection(List<DocumentSnapshot> documents) {
+        List<DocumentSnapshot> ownDocuments = new ArrayList<>(documents.size());
+        for (DocumentSnapshot document : documents) {
+            if (document.getReference().getParent().getPath().equals(messages.getPath())) {
+                ownDocuments.add(document);
+            }
+        }
+        return ownDocuments;
+    }
+
+    /**
+     * Builds the legacy query for every message exchanged in either direction
+     * between the two participants, ordered by timestamp.
+     * Used for the live tail during the dual-read period.
+     *
+     * @return Ordered query over the legacy collection
+     */
+    public Query legacyQuery() {
+        return database.collection(Constants.KEY_COLLECTION_CHAT)
+                .where(Filter.or(
+                        Filter.and(
+                                Filter.equalTo(Constants.KEY_SENDER_ID, firstUserId),
+                                Filter.equalTo(Constants.KEY_RECEIVER_ID, secondUserId)),
+                        Filter.and(
+                                Filter.equalTo(Constants.KEY_SENDER_ID, secondUserId),
+                                Filter.equalTo(Constants.KEY_RECEIVER_ID, firstUserId))))
+                .orderBy(Constants.KEY_TIMESTAMP);
+    }
+
+    /**
+     * Runs a page query against the subcollection and, during the dual-read period,
+     * the same page against the legacy collection, then merges both by document ID.
+     * The subcollection copy of a migrated message wins. A failing legacy read only
+     * loses legacy history, while a failing subcollection read fails the page.
+     */
+    private Task<List<DocumentSnapshot>> read(Query query, Query legacyQuery, int limit) {
+        Task<QuerySnapshot> page = query.get();
+        if (!READ_LEGACY_MESSAGES) {
+            return page.continueWith(task -> task.getResult().getDocuments());
+        }
+        Task<QuerySnapshot> legacyPage = legacyQuery.get();
+        return Tasks.whenAllComplete(page, legacyPage).continueWith(AppExecutors.getInstance().background(), unused -> {
+            Map<String, DocumentSnapshot> merged = new LinkedHashMap<>();
+            if (legacyPage.isSuccessful()) {
+                for (DocumentSnapshot document : legacyPage.getResult().getDocuments()) {
+                    merged.put(document.getId(), document);
+                }
+            } else {
+                Log.w(TAG, "Unable to read legacy messages", legacyPage.getException());
+            }
+            // Propagate failures of the subcollection read
+            for (DocumentSnapshot document : page.getResult().getDocuments()) {
+                merged.put(document.getId(), document);
+            }
+            List<DocumentSnapshot> documents = new ArrayList<>(merged.size());
+            for (DocumentSnapshot document : merged.values()) {
+                // Documents without a timestamp cannot be ordered
+                if (timestampOf(document) != null) {
+                    documents.add(document);
+                }
+            }
+            Collections.sort(documents, TIMESTAMP_ORDER);
+            return documents.size() > limit
+                    ? new ArrayList<>(documents.subList(documents.size() - limit, documents.size()))
+                    : documents;
+        });
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.cslab4.firebase;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.cslab4.database.MessageStore;
+import com.example.cslab4.models.ChatMessage;
+import com.example.cslab4.models.User;
+import com.example.cslab4.utilities.AppExecutors;
+import com.example.cslab4.utilities.AvatarCache;
+import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.ConversationUtils;
+import com.example.cslab4.utilities.PreferenceManager;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepares the conversations a user is likely to open next.
+ * Lists hand over the users at the top of what is on screen; once the list has been
+ * idle for a moment, the newest page of each conversation that was never synced is
+ * stored locally together with its high-water mark, and the other user's avatar is
+ * decoded into the avatar cache. Opening one of those chats then renders from the
+ * store and only listens for newer messages.
+ * Prefetching is skipped on metered networks, in battery saver and on low battery,
+ * and stops once the bytes downloaded within the current window reach the budget.
+ * All public methods must be called on the main thread.
+ */
+public class ConversationPrefetcher {
+
+    private static final String TAG = "ConversationPrefetcher";
+
+    // Time the list must stay idle before prefetching starts
+    private static final long IDLE_DELAY_MS = 500;
+    // Number of conversations prepared per idle list
+    private static final int MAX_CONVERSATIONS = 3;
+    // Download budget per window, and the length of the window
+    private static final long BUDGET_BYTES = 256 * 1024;
+    private static final long BUDGET_WINDOW_MS = 60 * 60 * 1000;
+    // Estimated download size of a thumbnail avatar
+    private static final long AVATAR_ESTIMATE_BYTES = 8 * 1024;
+    // Estimated per-document overhead on top of the message body
+    private static final long MESSAGE_OVERHEAD_BYTES = 200;
+    // Battery level below which nothing is prefetched unless charging
+    private static final int LOW_BATTERY_PERCENT = 20;
+
+    private static ConversationPrefetcher instance;
+
+    private final Context context;
+    private final FirebaseFirestore database;
+    private final MessageStore messageStore;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Conversations already prepared or being prepared in this process
+    private final Set<String> prefetchedConversations = new HashSet<>();
+    // Updated from the disk thread as downloads complete
+    private final AtomicLong bytesUsed = new AtomicLong();
+    private long windowStartedAt = 0;
+    private List<User> candidates = new ArrayList<>();
+
+    private final Runnable prefetchRunnable = this::prefetchCandidates;
+
+    private ConversationPrefetcher(Context context) {
+        this.context = context;
+        database = FirebaseFirestore.getInstance();
+        messageStore = new MessageStore(context);
+    }
+
+    /**
+     * Returns the process-wide prefetcher.
+     *
+     * @param context Any context; the application context is used
+     * @return Shared ConversationPrefetcher
+     */
+    public static synchronized ConversationPrefetcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new ConversationPrefetcher(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Schedules the conversations with the given users for prefetching once the list is idle.
+     * Replaces any users handed over earlier that were not prefetched yet.
+     *
+     * @param users Users at the top of the list, most likely to be opened first
+     */
+    public void prefetchWhenIdle(List<User> users) {
+        handler.removeCallbacks(prefetchRunnable);
+        candidates = new ArrayList<>(users.subList(0, Math.min(users.size(), MAX_CONVERSATIONS)));
+        handler.postDelayed(prefetchRunnable, IDLE_DELAY_MS);
+    }
+
+    /**
+     * Cancels a scheduled prefetch, for example because the list started scrolling again.
+     * Downloads that already started are completed.
+     */
+    public void cancel() {
+        handler.removeCallbacks(prefetchRunnable);
+    }
+
+    /**
+     * Prepares the conversations of the current candidates, within the budget.
+     */
+    private void prefetchCandidates() {
+        String currentUserId = new PreferenceManager(context).getString(Constants.KEY_USER_ID);
+        if (currentUserId == null || !canPrefetch()) {
+            return;
+        }
+        if (SystemClock.elapsedRealtime() - windowStartedAt > BUDGET_WINDOW_MS) {
+            windowStartedAt = SystemClock.elapsedRealtime();
+            bytesUsed.set(0);
+        }
+        AvatarCache avatarCache = AvatarCache.getInstance(context);
+        for (User user : candidates) {
+            String conversationId = ConversationUtils.getConversationId(currentUserId, user.id);
+            if (bytesUsed.get() >= BUDGET_BYTES || !prefetchedConversations.add(conversationId)) {
+                continue;
+            }
+            if (user.imageHash != null) {
+                bytesUsed.addAndGet(AVATAR_ESTIMATE_BYTES);
+                // Decoded into the shared cache, the listener only keeps the load alive
+                avatarCache.load(user.imageHash, Constants.KEY_AVATAR_THUMBNAIL, bitmap -> { });
+            }
+            prefetchMessages(conversationId, currentUserId, user.id);
+        }
+        candidates = new ArrayList<>();
+    }
+
+    /**
+     * Stores the newest page of a conversation unless it was synced before,
+     * in which case opening it only downloads the messages since its high-water mark.
+     */
+    private void prefetchMessages(String conversationId, String currentUserId, String userId) {
+        AppExecutors.getInstance().diskIO().execute(() -> {
+            if (messageStore.getHighWaterMark(conversationId) > 0) {
+                return;
+            }
+            new ConversationMessages(database, currentUserId, userId)
+                    .getLatest(ConversationMessages.PAGE_SIZE)
+                    .addOnCompleteListener(AppExecutors.getInstance().diskIO(), task -> {
+                        if (!task.isSuccessful()) {
+                            Log.w(TAG, "Unable to prefetch " + conversationId, task.getException());
+                            // Let a later idle list try again
+                            AppExecutors.getInstance().mainThread().execute(() ->
+                                    prefetchedConversations.remove(conversationId));
+                            return;
+                        }
+                        List<DocumentSnapshot> documents = task.getResult();
+                        List<ChatMessage> newestPage = new ArrayList<>(documents.size());
+                        long bytes = 0;
+                        for (DocumentSnapshot document : documents) {
+                            ChatMessage chatMessage = ConversationMessages.toChatMessage(document);
+                            if (chatMessage == null) {
+                                continue;
+                            }
+                            newestPage.add(chatMessage);
+                            bytes += MESSAGE_OVERHEAD_BYTES
+                                    + (chatMessage.message != null ? chatMessage.message.length() : 0);
+                        }
+                        bytesUsed.addAndGet(bytes);
+                        messageStore.putNewestPage(conversationId, newestPage,
+                                newestPage.size() < ConversationMessages.PAGE_SIZE,
+                                ConversationMessages.confirmedUntil(documents, false));
+                    });
+        });
+    }
+
+    /**
+     * Returns whether the device is in a state where speculative downloads are acceptable:
+     * on an unmetered network, outside battery saver, and charging or above the low battery level.
+     */
+    private boolean canPrefetch() {
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        if (connectivityManager == null || connectivityManager.getActiveNetwork() == null
+                || connectivityManager.isActiveNetworkMetered()) {
+            return false;
+        }
+        PowerManager powerManager = context.getSystemService(PowerManager.class);
+        if (powerManager != null && powerManager.isPowerSaveMode()) {
+            return false;
+        }
+        BatteryManager batteryManager = context.getSystemService(BatteryManager.class);
+        return batteryManager == null || batteryManager.isCharging()
+                || batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY) >= LOW_BATTERY_PERCENT;
+    }
+}
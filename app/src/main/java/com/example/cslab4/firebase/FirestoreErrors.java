@@ -0,0 +1,40 @@
+package com.example.cslab4.firebase;
+
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+/**
+ * Utility class for classifying Firestore failures.
+ * Separates failures that a retry can fix, such as the device being offline or the
+ * server being overloaded, from those that will fail the same way every time.
+ */
+public final class FirestoreErrors {
+
+    private FirestoreErrors() {
+    }
+
+    /**
+     * Checks whether a failed Firestore operation can never succeed, no matter how often it is retried.
+     * Anything that is not a Firestore exception with a permanent code is treated as transient.
+     *
+     * @param exception Exception the operation failed with
+     * @return True if retrying is pointless
+     */
+    public static boolean isPermanent(Exception exception) {
+        if (!(exception instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        switch (((FirebaseFirestoreException) exception).getCode()) {
+            case INVALID_ARGUMENT:
+            case NOT_FOUND:
+            case ALREADY_EXISTS:
+            case PERMISSION_DENIED:
+            case FAILED_PRECONDITION:
+            case OUT_OF_RANGE:
+            case UNIMPLEMENTED:
+            case DATA_LOSS:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.cslab4.firebase;
+
+import android.util.Log;
+
+import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.ConversationUtils;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One-off backfill that copies messages from the flat chat collection into the
+ * per-conversation subcollections read through {@link ConversationMessages}.
+ * The chat collection is streamed in pages ordered by document ID, and each page is
+ * written in one batch. Every message keeps its document ID and fields, and is written
+ * with set(), so the backfill can be interrupted and run again, or resumed after the
+ * last copied message, without creating duplicates. The legacy collection is left in
+ * place, so clients still in the dual-read period keep seeing every message.
+ * Once the messages are copied, the summary document of every conversation seen is
+ * backfilled from its newest copied message and its participants' names, so the recent
+ * conversations list also shows conversations that predate the summaries. A summary
+ * that is already newer only gains the names, so running the backfill again never
+ * moves a conversation back in time.
+ * Peers on older builds keep writing to the legacy collection until they update, so the
+ * backfill has to run once more from the beginning before the dual-read period ends;
+ * see {@link ConversationMessages} for the steps.
+ * The migrator takes the Firestore instance to work on, so it can be verified against
+ * the local emulator before touching production data:
+ * <pre>
+ * FirebaseFirestore emulator = FirebaseFirestore.getInstance();
+ * emulator.useEmulator("10.0.2.2", 8080);
+ * new MessageMigrator(emulator).migrate()
+ *         .addOnSuccessListener(count -&gt; Log.d(TAG, "Copied " + count + " messages"));
+ * </pre>
+ */
+public class MessageMigrator {
+
+    private static final String TAG = "MessageMigrator";
+
+    // Each message takes one write, within the 500 write batch limit
+    private static final int PAGE_SIZE = 400;
+
+    private final FirebaseFirestore database;
+
+    /**
+     * Constructs a new MessageMigrator.
+     *
+     * @param database Firestore instance to migrate, for example one connected to the emulator
+     */
+    public MessageMigrator(FirebaseFirestore database) {
+        this.database = database;
+    }
+
+    /**
+     * Copies all messages of the chat collection, one page at a time.
+     *
+     * @return Task resolving to the number of messages copied
+     */
+    public Task<Integer> migrate() {
+        return migrate(null);
+    }
+
+    /**
+     * Copies the messages of the chat collection after a given document ID,
+     * for example to resume an interrupted backfill.
+     *
+     * @param afterMessageId Document ID to continue after, or null to start at the beginning
+     * @return Task resolving to the number of messages copied
+     */
+    public Task<Integer> migrate(String afterMessageId) {
+        Map<String, DocumentSnapshot> newestMessages = new HashMap<>();
+        return migratePage(afterMessageId, 0, newestMessages)
+                .continueWithTask(task -> backfillSummaries(newestMessages)
+                        .continueWith(unused -> {
+                            unused.getResult(); // Propagate backfill failures
+                            return task.getResult();
+                        }));
+    }
+
+    /**
+     * Copies the page of messages after the given document ID, then continues with the next page.
+     * Tracks the newest message of every conversation seen for the summary backfill.
+     */
+    private Task<Integer> migratePage(String afterMessageId, int migratedSoFar,
+                                      Map<String, DocumentSnapshot> newestMessages) {
+        Query query = database.collection(Constants.KEY_COLLECTION_CHAT)
+                .orderBy(FieldPath.documentId())
+                .limit(PAGE_SIZE);
+        if (afterMessageId != null) {
+            query = query.startAfter(afterMessageId);
+        }
+        return query.get().continueWithTask(task -> {
+            List<DocumentSnapshot> documents = task.getResult().getDocuments();
+            WriteBatch batch = database.batch();
+            int migrated = 0;
+            for (DocumentSnapshot document : documents) {
+                String senderId = document.getString(Constants.KEY_SENDER_ID);
+                String receiverId = document.getString(Constants.KEY_RECEIVER_ID);
+                Map<String, Object> message = document.getData();
+                if (senderId == null || receiverId == null || message == null) {
+                    Log.w(TAG, "Skipping message " + document.getId() + " without participants");
+                    continue;
+                }
+                String conversationId = ConversationUtils.getConversationId(senderId, receiverId);
+                batch.set(ConversationMessages.collectionOf(database, conversationId).document(document.getId()),
+                        message);
+                migrated++;
+                DocumentSnapshot newestMessage = newestMessages.get(conversationId);
+                if (newestMessage == null || isNewer(document, newestMessage)) {
+                    newestMessages.put(conversationId, document);
+                }
+            }
+            int total = migratedSoFar + migrated;
+            Task<Void> commit = migrated > 0 ? batch.commit() : Tasks.forResult(null);
+            return commit.continueWithTask(unused -> {
+                unused.getResult(); // Propagate commit failures
+                if (documents.size() < PAGE_SIZE) {
+                    return Tasks.forResult(total);
+                }
+                return migratePage(documents.get(documents.size() - 1).getId(), total, newestMessages);
+            });
+        });
+    }
+
+    /**
+     * Writes the summary of every conversation from its newest copied message.
+     *
+     * @param newestMessages Newest legacy message of each conversation, keyed by conversation ID
+     * @return Task that completes once every summary is written
+     */
+    private Task<Void> backfillSummaries(Map<String, DocumentSnapshot> newestMessages) {
+        List<Task<Void>> summaries = new ArrayList<>(newestMessages.size());
+        for (Map.Entry<String, DocumentSnapshot> entry : newestMessages.entrySet()) {
+            summaries.add(backfillSummary(entry.getKey(), entry.getValue()));
+        }
+        return Tasks.whenAll(summaries);
+    }
+
+    /**
+     * Merges the summary of one conversation in a transaction, so a message sent
+     * while the backfill runs is never overwritten by an older one.
+     */
+    private Task<Void> backfillSummary(String conversationId, DocumentSnapshot newestMessage) {
+        String senderId = newestMessage.getString(Constants.KEY_SENDER_ID);
+        String receiverId = newestMessage.getString(Constants.KEY_RECEIVER_ID);
+        DocumentReference summaryReference = database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .document(conversationId);
+        DocumentReference senderReference = database.collection(Constants.KEY_COLLECTION_USERS).document(senderId);
+        DocumentReference receiverReference = database.collection(Constants.KEY_COLLECTION_USERS)
+                .document(receiverId);
+        return database.runTransaction((Transaction.Function<Void>) transaction -> {
+            DocumentSnapshot summary = transaction.get(summaryReference);
+            Map<String, String> names = new HashMap<>();
+            putName(names, transaction.get(senderReference));
+            putName(names, transaction.get(receiverReference));
+            Map<String, Object> updates = new HashMap<>();
+            if (!names.isEmpty()) {
+                updates.put(Constants.KEY_PARTICIPANT_NAMES, names);
+            }
+            Timestamp lastTimestamp = summary.getTimestamp(Constants.KEY_LAST_TIMESTAMP);
+            Timestamp messageTimestamp = newestMessage.getTimestamp(Constants.KEY_TIMESTAMP);
+            if (lastTimestamp == null
+                    || (messageTimestamp != null && messageTimestamp.compareTo(lastTimestamp) > 0)) {
+                updates.put(Constants.KEY_PARTICIPANTS, ConversationUtils.getParticipants(senderId, receiverId));
+                updates.put(Constants.KEY_LAST_MESSAGE, newestMessage.getString(Constants.KEY_MESSAGE));
+                updates.put(Constants.KEY_LAST_SENDER_ID, senderId);
+                updates.put(Constants.KEY_LAST_TIMESTAMP, messageTimestamp);
+            }
+            if (!updates.isEmpty()) {
+                transaction.set(summaryReference, updates, SetOptions.merge());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Checks whether a legacy message is newer than another; messages without a timestamp are oldest.
+     */
+    private static boolean isNewer(DocumentSnapshot message, DocumentSnapshot other) {
+        Timestamp timestamp = message.getTimestamp(Constants.KEY_TIMESTAMP);
+        Timestamp otherTimestamp = other.getTimestamp(Constants.KEY_TIMESTAMP);
+        return timestamp != null && (otherTimestamp == null || timestamp.compareTo(otherTimestamp) > 0);
+    }
+
+    /**
+     * Adds the display name stored on a user document, if the user exists and has one.
+     */
+    private static void putName(Map<String, String> names, DocumentSnapshot user) {
+        if (!user.exists()) {
+            return;
+        }
+        String firstName = user.getString(Constants.KEY_FNAME);
+        String lastName = user.getString(Constants.KEY_LNAME);
+        String name = ((firstName != null ? firstName : "") + " " + (lastName != null ? lastName : "")).trim();
+        if (!name.isEmpty()) {
+            names.put(user.getId(), name);
+        }
+    }
+}
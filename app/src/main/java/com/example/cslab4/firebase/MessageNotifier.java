@@ -0,0 +1,293 @@
+package com.example.cslab4.firebase;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.app.Person;
+
+import com.example.cslab4.R;
+import com.example.cslab4.activities.ChatActivity;
+import com.example.cslab4.models.ChatMessage;
+import com.example.cslab4.utilities.Constants;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts chat message notifications, one per conversation.
+ * Each conversation's notification shows a rolling window of its latest messages in
+ * MessagingStyle, and all conversations are grouped under one summary, which is
+ * refreshed with every post so it comes back after being dismissed. Posts for the
+ * same conversation are rate limited: messages arriving within the repost interval of
+ * the previous post are collected and shown together in one later post, so a burst of
+ * messages costs one NotificationManager call instead of one per message. Nothing is
+ * posted for the conversation whose chat screen is in the foreground. Dismissing a
+ * notification, or opening its chat, drops the messages it showed, so they do not
+ * reappear with the conversation's next message.
+ * All state is confined to the notifier's own thread.
+ */
+public class MessageNotifier {
+
+    private static final String TAG = "MessageNotifier";
+    private static final String CHANNEL_ID = "messages";
+    private static final String GROUP_KEY = "com.example.cslab4.MESSAGES";
+    private static final int SUMMARY_ID = 0;
+
+    private static MessageNotifier instance;
+
+    private final Context context;
+    private final long repostIntervalMs;
+    private final int messageWindow;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Only accessed on the notifier thread
+    private final Map<String, ConversationNotification> notifications = new HashMap<>();
+    private final Set<String> postedConversations = new HashSet<>();
+    private String foregroundConversationId;
+
+    private MessageNotifier(Context context) {
+        this.context = context;
+        repostIntervalMs = context.getResources().getInteger(R.integer.notification_repost_interval_ms);
+        messageWindow = context.getResources().getInteger(R.integer.notification_message_window);
+        createChannel();
+    }
+
+    /**
+     * Returns the process-wide notifier.
+     *
+     * @param context Any context; the application context is used
+     * @return Shared MessageNotifier
+     */
+    public static synchronized MessageNotifier getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageNotifier(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Adds a received message to its conversation's notification.
+     * The notification is posted now, or at the end of the current rate limit interval.
+     *
+     * @param conversationId ID of the conversation
+     * @param chatMessage Received message
+     * @param senderName Display name of the sender
+     */
+    public void onMessageReceived(String conversationId, ChatMessage chatMessage, String senderName) {
+        executor.execute(() -> {
+            if (conversationId.equals(foregroundConversationId)) {
+                return;
+            }
+            ConversationNotification notification = notifications.get(conversationId);
+            if (notification == null) {
+                notification = new ConversationNotification(conversationId, chatMessage.senderId);
+                notifications.put(conversationId, notification);
+            }
+            notification.senderName = senderName;
+            notification.messages.addLast(chatMessage);
+            notification.unpostedCount++;
+            while (notification.messages.size() > messageWindow) {
+                notification.messages.removeFirst();
+            }
+            schedulePost(notification);
+        });
+    }
+
+    /**
+     * Marks a conversation as shown on screen, which removes its notification and
+     * suppresses new ones until {@link #clearForegroundConversation} is called.
+     *
+     * @param conversationId ID of the conversation on screen
+     */
+    public void setForegroundConversation(String conversationId) {
+        executor.execute(() -> {
+            foregroundConversationId = conversationId;
+            ConversationNotification notification = notifications.remove(conversationId);
+            if (notification != null && notification.pendingPost != null) {
+                notification.pendingPost.cancel(false);
+            }
+            if (postedConversations.remove(conversationId)) {
+                NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+                manager.cancel(conversationId, 0);
+                if (postedConversations.isEmpty()) {
+                    manager.cancel(SUMMARY_ID);
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets the messages a dismissed notification showed. Messages still waiting
+     * for a rate limited post are kept, and posted as planned.
+     *
+     * @param conversationId ID of the dismissed conversation, or null if the
+     *                       group summary was dismissed together with every conversation
+     */
+    public void onNotificationDismissed(String conversationId) {
+        executor.execute(() -> {
+            Set<String> dismissedConversations = conversationId != null
+                    ? Collections.singleton(conversationId) : new HashSet<>(postedConversations);
+            for (String dismissedConversationId : dismissedConversations) {
+                postedConversations.remove(dismissedConversationId);
+                ConversationNotification notification = notifications.get(dismissedConversationId);
+                if (notification == null) {
+                    continue;
+                }
+                while (notification.messages.size() > notification.unpostedCount) {
+                    notification.messages.removeFirst();
+                }
+                if (notification.messages.isEmpty()) {
+                    notifications.remove(dismissedConversationId);
+                }
+            }
+            if (postedConversations.isEmpty()) {
+                NotificationManagerCompat.from(context).cancel(SUMMARY_ID);
+            }
+        });
+    }
+
+    /**
+     * Ends the suppression started by {@link #setForegroundConversation}.
+     *
+     * @param conversationId ID of the conversation that left the screen
+     */
+    public void clearForegroundConversation(String conversationId) {
+        executor.execute(() -> {
+            if (conversationId.equals(foregroundConversationId)) {
+                foregroundConversationId = null;
+            }
+        });
+    }
+
+    /**
+     * Posts a conversation's notification now if the rate limit allows it,
+     * otherwise once the interval since the previous post has passed.
+     */
+    private void schedulePost(ConversationNotification notification) {
+        if (notification.pendingPost != null) {
+            // The scheduled post will include the new message
+            return;
+        }
+        long wait = notification.lastPostedAt + repostIntervalMs - SystemClock.elapsedRealtime();
+        if (notification.lastPostedAt == 0 || wait <= 0) {
+            post(notification);
+            return;
+        }
+        notification.pendingPost = executor.schedule(() -> {
+            notification.pendingPost = null;
+            if (notifications.get(notification.conversationId) == notification) {
+                post(notification);
+            }
+        }, wait, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds and posts a conversation's notification, and refreshes the group summary.
+     */
+    private void post(ConversationNotification notification) {
+        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        if (!manager.areNotificationsEnabled()) {
+            return;
+        }
+        notification.lastPostedAt = SystemClock.elapsedRealtime();
+        notification.unpostedCount = 0;
+        Person self = new Person.Builder().setName(context.getString(R.string.notification_self)).build();
+        Person sender = new Person.Builder().setKey(notification.senderId).setName(notification.senderName).build();
+        NotificationCompat.MessagingStyle style = new NotificationCompat.MessagingStyle(self);
+        for (ChatMessage chatMessage : notification.messages) {
+            style.addMessage(chatMessage.message, chatMessage.timestamp, sender);
+        }
+        Intent intent = new Intent(context, ChatActivity.class);
+        intent.putExtra(Constants.KEY_USER_ID, notification.senderId);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        PendingIntent contentIntent = PendingIntent.getActivity(context, notification.conversationId.hashCode(),
+                intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        try {
+            postedConversations.add(notification.conversationId);
+            manager.notify(notification.conversationId, 0, new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_send)
+                    .setStyle(style)
+                    .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+                    .setGroup(GROUP_KEY)
+                    .setContentIntent(contentIntent)
+                    .setDeleteIntent(deleteIntent(notification.conversationId))
+                    .setAutoCancel(true)
+                    // Repeated posts of a conversation update it silently
+                    .setOnlyAlertOnce(true)
+                    .build());
+            // Posted every time, since the summary may have been dismissed; updates are silent
+            manager.notify(SUMMARY_ID, new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_send)
+                    .setGroup(GROUP_KEY)
+                    .setGroupSummary(true)
+                    .setDeleteIntent(deleteIntent(null))
+                    .setAutoCancel(true)
+                    .setOnlyAlertOnce(true)
+                    .build());
+        } catch (SecurityException e) {
+            // The notification permission was revoked
+            Log.w(TAG, "Unable to post notification", e);
+        }
+    }
+
+    /**
+     * Creates the intent delivered to {@link NotificationDismissedReceiver} when a notification is dismissed.
+     *
+     * @param conversationId ID of the conversation, or null for the group summary
+     * @return Broadcast intent for the notification's delete intent
+     */
+    private PendingIntent deleteIntent(String conversationId) {
+        Intent intent = new Intent(context, NotificationDismissedReceiver.class);
+        intent.putExtra(Constants.KEY_CONVERSATION_ID, conversationId);
+        int requestCode = conversationId != null ? conversationId.hashCode() : SUMMARY_ID;
+        return PendingIntent.getBroadcast(context, requestCode, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    /**
+     * Creates the notification channel for messages on Android 8 and later.
+     */
+    private void createChannel() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                context.getString(R.string.notification_channel_messages), NotificationManager.IMPORTANCE_HIGH);
+        context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+
+    /**
+     * Rolling window of a conversation's latest messages and its rate limit state.
+     * Only accessed on the notifier thread.
+     */
+    private static class ConversationNotification {
+        final String conversationId;
+        final String senderId;
+        final ArrayDeque<ChatMessage> messages = new ArrayDeque<>();
+        String senderName;
+        // Messages added since the last post, which no dismissal has covered yet
+        int unpostedCount;
+        long lastPostedAt;
+        ScheduledFuture<?> pendingPost;
+
+        ConversationNotification(String conversationId, String senderId) {
+            this.conversationId = conversationId;
+            this.senderId = senderId;
+        }
+    }
+}
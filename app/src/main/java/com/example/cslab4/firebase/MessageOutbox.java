@@ -0,0 +1,393 @@
+package com.example.cslab4.firebase;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.cslab4.database.ChatDatabase;
+import com.example.cslab4.database.MessageStore;
+import com.example.cslab4.database.UserStore;
+import com.example.cslab4.listeners.OutboxListener;
+import com.example.cslab4.models.ChatMessage;
+import com.example.cslab4.models.User;
+import com.example.cslab4.utilities.AppExecutors;
+import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.ConversationUtils;
+import com.example.cslab4.utilities.PreferenceManager;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent outbox for outgoing chat messages.
+ * Messages are stored locally as pending before anything is sent, so they survive
+ * process death. Sends issued in quick succession are coalesced into one Firestore
+ * transaction, and batches that failed for a transient reason are retried with
+ * exponential backoff. A batch Firestore rejected for good is resent one message at
+ * a time, so only the offending message is marked as failed and never retried. Every message
+ * carries a client-generated document ID and is written with set(), so a retry of a
+ * batch that actually reached the server never creates a duplicate.
+ * Messages are written to their conversation's message subcollection.
+ * Timestamps are assigned by the server, so ordering does not depend on device clocks.
+ * The summary document of every affected conversation is updated in the same transaction,
+ * so the recent conversations list never disagrees with the messages themselves.
+ * The summary records the newest message it has applied from each sender. A batch
+ * replayed after its commit went through, for example after process death before the
+ * messages were marked as sent, skips the messages the summary already counts, so
+ * neither the unread count nor the message timestamps change a second time.
+ * Participant names passed to send() are used while the process lives; messages
+ * flushed after a restart take the names from the stored user directory instead.
+ */
+public class MessageOutbox {
+
+    private static final String TAG = "MessageOutbox";
+
+    // Time to wait for further sends before flushing a burst
+    private static final long COALESCE_DELAY_MS = 150;
+    // Backoff bounds for retrying failed batches
+    private static final long INITIAL_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    // Firestore allows at most 500 writes per transaction, and every message
+    // may come with a summary write of its own conversation
+    private static final int MAX_BATCH_SIZE = 250;
+
+    private static MessageOutbox instance;
+
+    private final ChatDatabase chatDatabase;
+    private final MessageStore messageStore;
+    private final UserStore userStore;
+    private final PreferenceManager preferenceManager;
+    private final FirebaseFirestore database;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Set<OutboxListener> outboxListeners = new CopyOnWriteArraySet<>();
+    private final Map<String, Map<String, String>> participantNames = new ConcurrentHashMap<>();
+
+    // Only accessed on the scheduler thread
+    private boolean isFlushScheduled = false;
+    private boolean isBatchInFlight = false;
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    // Drops to 1 after a rejected batch to find the offending message
+    private int batchLimit = MAX_BATCH_SIZE;
+
+    private MessageOutbox(Context context) {
+        chatDatabase = ChatDatabase.getInstance(context);
+        messageStore = new MessageStore(context);
+        userStore = new UserStore(context);
+        preferenceManager = new PreferenceManager(context);
+        database = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * Returns the process-wide outbox.
+     *
+     * @param context Any context; the application context is used
+     * @return Shared MessageOutbox
+     */
+    public static synchronized MessageOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Generates a new client-side document ID for a chat message.
+     *
+     * @return Unique document ID for the conversation's message subcollection
+     */
+    public String newMessageId() {
+        return database.collection(Constants.KEY_COLLECTION_MESSAGES).document().getId();
+    }
+
+    /**
+     * Queues a message for sending. The message is stored as pending first
+     * and sent together with any other messages queued in the same burst.
+     *
+     * @param conversationId ID of the conversation the message belongs to
+     * @param chatMessage Message with a client-generated ID, marked as pending
+     * @param senderName Display name of the sender, stored in the conversation summary, or null
+     * @param receiverName Display name of the receiver, stored in the conversation summary,
+     *                     or null if the receiver's profile is not loaded yet
+     */
+    public void send(String conversationId, ChatMessage chatMessage, String senderName, String receiverName) {
+        // A name that is not loaded yet must not overwrite the stored one in the summary
+        Map<String, String> names = new HashMap<>();
+        if (senderName != null && !senderName.isEmpty()) {
+            names.put(chatMessage.senderId, senderName);
+        }
+        if (receiverName != null) {
+            names.put(chatMessage.receiverId, receiverName);
+        }
+        if (!names.isEmpty()) {
+            participantNames.computeIfAbsent(conversationId, key -> new ConcurrentHashMap<>()).putAll(names);
+        }
+        scheduler.execute(() -> {
+            messageStore.putMessages(conversationId, Collections.singletonList(chatMessage));
+            scheduleFlush(COALESCE_DELAY_MS);
+        });
+    }
+
+    /**
+     * Sends any messages still pending from an earlier session.
+     */
+    public void flush() {
+        scheduler.execute(() -> scheduleFlush(0));
+    }
+
+    /**
+     * Drops everything the outbox holds for the signed-in user and clears the local
+     * database, including messages still pending, so nothing is sent on their behalf
+     * after they sign out. Runs on the outbox's own thread, so a flush queued before
+     * the call finds nothing left to send. A batch already in flight cannot be recalled
+     * and still completes.
+     *
+     * @param onCleared Called on the main thread once everything is cleared
+     */
+    public void clear(Runnable onCleared) {
+        scheduler.execute(() -> {
+            participantNames.clear();
+            backoffMs = INITIAL_BACKOFF_MS;
+            batchLimit = MAX_BATCH_SIZE;
+            chatDatabase.clear();
+            AppExecutors.getInstance().mainThread().execute(onCleared);
+        });
+    }
+
+    /**
+     * Registers a listener for confirmed messages.
+     *
+     * @param outboxListener Listener to add
+     */
+    public void addListener(OutboxListener outboxListener) {
+        outboxListeners.add(outboxListener);
+    }
+
+    /**
+     * Unregisters a listener for confirmed messages.
+     *
+     * @param outboxListener Listener to remove
+     */
+    public void removeListener(OutboxListener outboxListener) {
+        outboxListeners.remove(outboxListener);
+    }
+
+    /**
+     * Schedules a flush unless one is already scheduled or a batch is in flight;
+     * an in-flight batch reschedules itself once it completes.
+     */
+    private void scheduleFlush(long delayMs) {
+        if (isFlushScheduled || isBatchInFlight) {
+            return;
+        }
+        isFlushScheduled = true;
+        scheduler.schedule(this::flushPending, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Commits every pending message, up to the batch limit, in one transaction.
+     */
+    private void flushPending() {
+        isFlushScheduled = false;
+        List<ChatMessage> pendingMessages = messageStore.getPendingMessages(batchLimit);
+        if (pendingMessages.isEmpty()) {
+            return;
+        }
+        List<String> messageIds = new ArrayList<>(pendingMessages.size());
+        Map<String, List<ChatMessage>> messagesByConversation = new HashMap<>();
+        for (ChatMessage chatMessage : pendingMessages) {
+            String conversationId = ConversationUtils.getConversationId(chatMessage.senderId, chatMessage.receiverId);
+            messageIds.add(chatMessage.id);
+            List<ChatMessage> conversationMessages = messagesByConversation.get(conversationId);
+            if (conversationMessages == null) {
+                conversationMessages = new ArrayList<>();
+                messagesByConversation.put(conversationId, conversationMessages);
+            }
+            conversationMessages.add(chatMessage);
+        }
+        // Resolved here, since the names may need disk access
+        Map<String, Map<String, String>> namesByConversation = new HashMap<>();
+        for (Map.Entry<String, List<ChatMessage>> entry : messagesByConversation.entrySet()) {
+            ChatMessage lastMessage = entry.getValue().get(entry.getValue().size() - 1);
+            Map<String, String> names = new HashMap<>();
+            addParticipantName(names, entry.getKey(), lastMessage.senderId);
+            addParticipantName(names, entry.getKey(), lastMessage.receiverId);
+            namesByConversation.put(entry.getKey(), names);
+        }
+        isBatchInFlight = true;
+        database.runTransaction((Transaction.Function<Void>) transaction -> {
+            // A transaction has to read every summary before writing anything
+            Map<String, DocumentSnapshot> summaries = new HashMap<>();
+            for (String conversationId : messagesByConversation.keySet()) {
+                summaries.put(conversationId, transaction.get(summaryOf(conversationId)));
+            }
+            for (Map.Entry<String, List<ChatMessage>> entry : messagesByConversation.entrySet()) {
+                List<ChatMessage> unappliedMessages = unappliedMessages(summaries.get(entry.getKey()), entry.getValue());
+                if (unappliedMessages.isEmpty()) {
+                    continue;
+                }
+                for (ChatMessage chatMessage : unappliedMessages) {
+                    HashMap<String, Object> message = new HashMap<>();
+                    message.put(Constants.KEY_SENDER_ID, chatMessage.senderId);
+                    message.put(Constants.KEY_RECEIVER_ID, chatMessage.receiverId);
+                    message.put(Constants.KEY_MESSAGE, chatMessage.message);
+                    message.put(Constants.KEY_TIMESTAMP, FieldValue.serverTimestamp());
+                    transaction.set(ConversationMessages.collectionOf(database, entry.getKey())
+                            .document(chatMessage.id), message);
+                }
+                transaction.set(summaryOf(entry.getKey()),
+                        conversationSummary(unappliedMessages, namesByConversation.get(entry.getKey())),
+                        SetOptions.merge());
+            }
+            return null;
+        }).addOnCompleteListener(scheduler, task -> {
+            isBatchInFlight = false;
+            if (task.isSuccessful()) {
+                backoffMs = INITIAL_BACKOFF_MS;
+                batchLimit = MAX_BATCH_SIZE;
+                messageStore.markSynced(messageIds);
+                notifySent(messageIds);
+                // Send anything queued while this batch was in flight
+                scheduleFlush(0);
+            } else if (FirestoreErrors.isPermanent(task.getException())) {
+                if (messageIds.size() > 1) {
+                    // One message fails the whole batch, so resend them one by one
+                    Log.w(TAG, "Batch rejected, resending messages individually", task.getException());
+                    batchLimit = 1;
+                } else {
+                    Log.e(TAG, "Message " + messageIds.get(0) + " rejected, not retrying", task.getException());
+                    messageStore.markFailed(messageIds);
+                    notifyFailed(messageIds);
+                }
+                scheduleFlush(0);
+            } else {
+                Log.w(TAG, "Unable to send messages, retrying in " + backoffMs + "ms", task.getException());
+                scheduleFlush(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        });
+    }
+
+    /**
+     * Returns the summary document of a conversation.
+     *
+     * @param conversationId ID of the conversation
+     * @return Reference to the summary document
+     */
+    private DocumentReference summaryOf(String conversationId) {
+        return database.collection(Constants.KEY_COLLECTION_CONVERSATIONS).document(conversationId);
+    }
+
+    /**
+     * Drops the messages of a batch that the summary has already applied.
+     * Batches of one sender commit in order, so the applied messages of a replayed
+     * batch are a prefix ending at the sender's last applied message.
+     *
+     * @param summary Current summary document, which may not exist yet
+     * @param chatMessages Messages of the conversation in ascending timestamp order
+     * @return Messages still to be written, in the same order
+     */
+    private static List<ChatMessage> unappliedMessages(DocumentSnapshot summary, List<ChatMessage> chatMessages) {
+        String senderId = chatMessages.get(0).senderId;
+        String lastAppliedId = summary.exists()
+                ? summary.getString(Constants.KEY_LAST_MESSAGE_IDS + "." + senderId) : null;
+        for (int i = chatMessages.size() - 1; lastAppliedId != null && i >= 0; i--) {
+            if (lastAppliedId.equals(chatMessages.get(i).id)) {
+                return chatMessages.subList(i + 1, chatMessages.size());
+            }
+        }
+        return chatMessages;
+    }
+
+    /**
+     * Builds the merge update of a conversation summary for the messages of one batch.
+     * The newest message becomes the last message, the receiver's unread count
+     * grows by the number of messages, and the newest message is recorded as applied.
+     *
+     * @param chatMessages Messages of the conversation not applied yet, in ascending timestamp order
+     * @param names Known display names of the participants, by user ID
+     * @return Fields to merge into the summary document
+     */
+    private static Map<String, Object> conversationSummary(List<ChatMessage> chatMessages, Map<String, String> names) {
+        ChatMessage lastMessage = chatMessages.get(chatMessages.size() - 1);
+        HashMap<String, Object> summary = new HashMap<>();
+        summary.put(Constants.KEY_PARTICIPANTS,
+                ConversationUtils.getParticipants(lastMessage.senderId, lastMessage.receiverId));
+        summary.put(Constants.KEY_LAST_MESSAGE, lastMessage.message);
+        summary.put(Constants.KEY_LAST_SENDER_ID, lastMessage.senderId);
+        summary.put(Constants.KEY_LAST_TIMESTAMP, FieldValue.serverTimestamp());
+        HashMap<String, Object> unreadCount = new HashMap<>();
+        unreadCount.put(lastMessage.receiverId, FieldValue.increment(chatMessages.size()));
+        summary.put(Constants.KEY_UNREAD_COUNT, unreadCount);
+        HashMap<String, Object> lastMessageIds = new HashMap<>();
+        lastMessageIds.put(lastMessage.senderId, lastMessage.id);
+        summary.put(Constants.KEY_LAST_MESSAGE_IDS, lastMessageIds);
+        if (!names.isEmpty()) {
+            summary.put(Constants.KEY_PARTICIPANT_NAMES, names);
+        }
+        return summary;
+    }
+
+    /**
+     * Adds the display name of a participant to the summary's names, if it is known.
+     * Names passed to send() during this process win; otherwise the signed-in user's
+     * name comes from the preferences and the other participant's from the user directory.
+     * An unknown name is left out, so the merge keeps the stored one.
+     *
+     * @param names Names to add to
+     * @param conversationId ID of the conversation
+     * @param userId ID of the participant
+     */
+    private void addParticipantName(Map<String, String> names, String conversationId, String userId) {
+        Map<String, String> sentNames = participantNames.get(conversationId);
+        String name = sentNames != null ? sentNames.get(userId) : null;
+        if (name == null && userId.equals(preferenceManager.getString(Constants.KEY_USER_ID))) {
+            String firstName = preferenceManager.getString(Constants.KEY_FNAME);
+            String lastName = preferenceManager.getString(Constants.KEY_LNAME);
+            name = ((firstName != null ? firstName : "") + " " + (lastName != null ? lastName : "")).trim();
+        } else if (name == null) {
+            User user = userStore.getUser(userId);
+            name = user != null ? user.name : null;
+        }
+        if (name != null && !name.isEmpty()) {
+            names.put(userId, name);
+        }
+    }
+
+    /**
+     * Notifies listeners on the main thread that messages were confirmed.
+     */
+    private void notifySent(List<String> messageIds) {
+        List<String> sentIds = Collections.unmodifiableList(messageIds);
+        AppExecutors.getInstance().mainThread().execute(() -> {
+            for (OutboxListener outboxListener : outboxListeners) {
+                outboxListener.onMessagesSent(sentIds);
+            }
+        });
+    }
+
+    /**
+     * Notifies listeners on the main thread that messages were rejected for good.
+     */
+    private void notifyFailed(List<String> messageIds) {
+        List<String> failedIds = Collections.unmodifiableList(messageIds);
+        AppExecutors.getInstance().mainThread().execute(() -> {
+            for (OutboxListener outboxListener : outboxListeners) {
+                outboxListener.onMessagesFailed(failedIds);
+            }
+        });
+    }
+}
@@ -4,11 +4,30 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.example.cslab4.R;
+import com.example.cslab4.database.MessageStore;
+import com.example.cslab4.database.UserStore;
+import com.example.cslab4.models.ChatMessage;
+import com.example.cslab4.models.User;
+import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.ConversationUtils;
+import com.example.cslab4.utilities.PreferenceManager;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
+import java.util.Map;
+
+/**
+ * Receives Firebase Cloud Messaging tokens and messages.
+ * Chat messages arrive as data payloads carrying the message's document ID, sender,
+ * receiver, body and timestamp, and are written straight into the local message store,
+ * so opening the conversation shows them without a network round trip. The Firestore
+ * read that follows replaces the stored copy by document ID instead of duplicating it.
+ */
 public class MessagingService extends FirebaseMessagingService {
 
+    private static final String TAG = "FCM";
+
     /**
      * Called when a new FCM token is generated for this app instance.
      * Logs the new token for debugging purposes.
@@ -18,18 +37,76 @@ public class MessagingService extends FirebaseMessagingService {
     @Override
     public void onNewToken(@NonNull String token) {
         super.onNewToken(token);
-        Log.d("FCM", "Token:" +token);
+        Log.d(TAG, "Token:" +token);
     }
 
     /**
      * Called when a new FCM message is received.
-     * Logs the message body for debugging purposes.
+     * Stores chat messages carried in the data payload and shows them in a notification.
+     * Runs on a background thread, so the message is written to disk directly.
      *
-     * @param message The FCM message received containing notification data
+     * @param message The FCM message received, with a data payload, a notification, or both
      */
     @Override
     public void onMessageReceived(@NonNull RemoteMessage message) {
         super.onMessageReceived(message);
-        Log.d("FCM", "460 Message: " +message.getNotification().getBody());
+        ChatMessage chatMessage = toChatMessage(message.getData());
+        if (chatMessage != null) {
+            String conversationId = ConversationUtils.getConversationId(chatMessage.senderId, chatMessage.receiverId);
+            new MessageStore(getApplicationContext()).putPushedMessage(conversationId, chatMessage);
+            notifyMessage(conversationId, chatMessage, message.getData().get(Constants.KEY_SENDER_NAME));
+        } else if (message.getNotification() != null) {
+            Log.d(TAG, "460 Message: " + message.getNotification().getBody());
+        }
+    }
+
+    /**
+     * Shows a received message in its conversation's notification.
+     * Messages the signed-in user sent from another device are not shown. The sender's
+     * name comes from the payload, or from the local user directory when the payload
+     * does not carry it.
+     *
+     * @param conversationId ID of the message's conversation
+     * @param chatMessage Received message
+     * @param senderName Sender's name from the payload, or null
+     */
+    private void notifyMessage(String conversationId, ChatMessage chatMessage, String senderName) {
+        String userId = new PreferenceManager(getApplicationContext()).getString(Constants.KEY_USER_ID);
+        if (userId == null || userId.equals(chatMessage.senderId)) {
+            return;
+        }
+        if (senderName == null) {
+            User sender = new UserStore(getApplicationContext()).getUser(chatMessage.senderId);
+            senderName = sender != null ? sender.name : getString(R.string.unknown_sender);
+        }
+        MessageNotifier.getInstance(this).onMessageReceived(conversationId, chatMessage, senderName);
+    }
+
+    /**
+     * Creates a chat message from a data payload.
+     *
+     * @param data Data payload of the FCM message
+     * @return Chat message, or null if the payload does not carry a complete chat message
+     */
+    private static ChatMessage toChatMessage(Map<String, String> data) {
+        String messageId = data.get(Constants.KEY_MESSAGE_ID);
+        String senderId = data.get(Constants.KEY_SENDER_ID);
+        String receiverId = data.get(Constants.KEY_RECEIVER_ID);
+        String timestamp = data.get(Constants.KEY_TIMESTAMP);
+        if (messageId == null || senderId == null || receiverId == null || timestamp == null) {
+            return null;
+        }
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = messageId;
+        chatMessage.senderId = senderId;
+        chatMessage.receiverId = receiverId;
+        chatMessage.message = data.get(Constants.KEY_MESSAGE);
+        try {
+            chatMessage.timestamp = Long.parseLong(timestamp);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignoring message " + messageId + " with invalid timestamp " + timestamp);
+            return null;
+        }
+        return chatMessage;
     }
 }
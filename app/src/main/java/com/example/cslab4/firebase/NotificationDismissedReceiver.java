@@ -0,0 +1,29 @@
+package com.example.cslab4.firebase;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.cslab4.utilities.Constants;
+
+/**
+ * Receives the delete intents of message notifications.
+ * Tells the notifier a conversation's notification was dismissed, so messages the
+ * user has already seen are not shown again by its next notification. A delete
+ * intent without a conversation ID comes from the group summary, which dismisses
+ * every conversation at once.
+ */
+public class NotificationDismissedReceiver extends BroadcastReceiver {
+
+    /**
+     * Called when the user dismissed a message notification.
+     *
+     * @param context Context the receiver is running in
+     * @param intent Delete intent, carrying the conversation ID unless it belongs to the summary
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        MessageNotifier.getInstance(context)
+                .onNotificationDismissed(intent.getStringExtra(Constants.KEY_CONVERSATION_ID));
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.cslab4.firebase;
+
+import android.util.Log;
+
+import com.example.cslab4.listeners.QueryObserver;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Central hub that shares Firestore snapshot listeners between screens.
+ * Queries are identified by a normalized description chosen by the caller, for
+ * example "chat/{conversationId}/tail". All observers of the same description share
+ * one Firestore listener and one materialized result, and an observer joining later
+ * receives the current result straight away instead of downloading it again.
+ * Observers are reference counted; the listener is removed shortly after the last
+ * observer leaves, so a screen that is quickly reopened finds it still running.
+ * A listener that fails for a transient reason, for example while the device is
+ * offline, is attached again with exponential backoff, and its observers receive the
+ * next result as an initial one. Only permanent failures are passed on to observers.
+ * All state is confined to the hub's own thread, on which observers are also called.
+ */
+public class QueryHub {
+
+    private static final String TAG = "QueryHub";
+
+    // Time a query stays attached after its last observer left
+    private static final long LINGER_MS = 5_000;
+    // Backoff bounds for attaching a failed query again
+    private static final long INITIAL_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+
+    private static QueryHub instance;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Only accessed on the hub thread
+    private final Map<String, SharedQuery> sharedQueries = new HashMap<>();
+
+    private QueryHub() {
+    }
+
+    /**
+     * Returns the process-wide query hub.
+     *
+     * @return Shared QueryHub
+     */
+    public static synchronized QueryHub getInstance() {
+        if (instance == null) {
+            instance = new QueryHub();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts observing a query.
+     * Queries of the same description may continue after different documents. An observer
+     * only joins the attached query if that query provably returns everything the observer
+     * asked for: both continue after the same document, or the observer's document is part
+     * of the attached query's result, so the query starts before it. Joining observers may
+     * therefore receive documents they have already seen, and must ignore them by ID.
+     * Queries without a document to continue after are treated as equal, so callers must
+     * build them from a starting point that only moves forward, such as a high-water mark.
+     * Otherwise the given query is attached and becomes the shared one for the description,
+     * while the earlier query keeps serving its own observers until they leave.
+     *
+     * @param description Normalized description identifying the query
+     * @param after Document the given query continues after, or null
+     * @param query Query to attach if no attached query of this description can serve the observer
+     * @param queryObserver Observer receiving the results on the hub thread
+     * @return Registration that stops observing when removed
+     */
+    public ListenerRegistration observe(String description, DocumentSnapshot after, Query query,
+                                        QueryObserver queryObserver) {
+        SharedQuery[] observed = new SharedQuery[1];
+        executor.execute(() -> {
+            SharedQuery sharedQuery = sharedQueries.get(description);
+            if (sharedQuery == null || !sharedQuery.covers(after)) {
+                sharedQuery = new SharedQuery(description, after, query);
+                sharedQueries.put(description, sharedQuery);
+            }
+            sharedQuery.addObserver(queryObserver);
+            observed[0] = sharedQuery;
+        });
+        return () -> executor.execute(() -> {
+            if (observed[0] != null) {
+                observed[0].removeObserver(queryObserver);
+            }
+        });
+    }
+
+    /**
+     * One attached Firestore listener together with its observers and latest result.
+     * Only accessed on the hub thread.
+     */
+    private class SharedQuery {
+        private final String description;
+        private final DocumentSnapshot after;
+        private final Query query;
+        private final List<QueryObserver> observers = new ArrayList<>();
+        private ListenerRegistration listenerRegistration;
+        private QuerySnapshot latestSnapshot;
+        private ScheduledFuture<?> pendingTeardown;
+        private ScheduledFuture<?> pendingAttach;
+        private long backoffMs = INITIAL_BACKOFF_MS;
+        // Set after a failure, so the next result is delivered as an initial one
+        private boolean isReattached = false;
+        private boolean isTornDown = false;
+
+        SharedQuery(String description, DocumentSnapshot after, Query query) {
+            this.description = description;
+            this.after = after;
+            this.query = query;
+            attach();
+        }
+
+        /**
+         * Checks whether this query returns every document after the given one.
+         */
+        boolean covers(DocumentSnapshot observerAfter) {
+            if (after == null || observerAfter == null) {
+                return after == observerAfter;
+            }
+            if (after.getReference().equals(observerAfter.getReference())) {
+                return true;
+            }
+            if (latestSnapshot == null) {
+                return false;
+            }
+            for (DocumentSnapshot document : latestSnapshot.getDocuments()) {
+                if (document.getReference().equals(observerAfter.getReference())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Attaches the Firestore listener.
+         */
+        private void attach() {
+            pendingAttach = null;
+            listenerRegistration = query.addSnapshotListener(executor, (value, error) -> {
+                if (isTornDown) {
+                    return;
+                }
+                if (error != null || value == null) {
+                    onError(error);
+                    return;
+                }
+                backoffMs = INITIAL_BACKOFF_MS;
+                boolean isFirstResult = latestSnapshot == null || isReattached;
+                isReattached = false;
+                latestSnapshot = value;
+                for (QueryObserver observer : new ArrayList<>(observers)) {
+                    observer.onQueryChanged(value, isFirstResult);
+                }
+            });
+        }
+
+        /**
+         * Attaches the listener again after a transient failure, or tells the
+         * observers about a permanent one and forgets the query.
+         */
+        private void onError(Exception error) {
+            listenerRegistration.remove();
+            if (FirestoreErrors.isPermanent(error)) {
+                Log.w(TAG, "Query " + description + " failed", error);
+                tearDown();
+                for (QueryObserver observer : new ArrayList<>(observers)) {
+                    observer.onQueryChanged(null, false);
+                }
+                return;
+            }
+            Log.w(TAG, "Query " + description + " interrupted, attaching again in " + backoffMs + "ms", error);
+            isReattached = true;
+            pendingAttach = executor.schedule(this::attach, backoffMs, TimeUnit.MILLISECONDS);
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        }
+
+        /**
+         * Adds an observer and delivers the current result to it, if there is one yet.
+         */
+        void addObserver(QueryObserver queryObserver) {
+            if (pendingTeardown != null) {
+                pendingTeardown.cancel(false);
+                pendingTeardown = null;
+            }
+            observers.add(queryObserver);
+            if (latestSnapshot != null) {
+                queryObserver.onQueryChanged(latestSnapshot, true);
+            }
+        }
+
+        /**
+         * Removes an observer and schedules the teardown once none are left.
+         */
+        void removeObserver(QueryObserver queryObserver) {
+            observers.remove(queryObserver);
+            if (observers.isEmpty() && pendingTeardown == null && !isTornDown) {
+                pendingTeardown = executor.schedule(() -> {
+                    pendingTeardown = null;
+                    if (observers.isEmpty()) {
+                        tearDown();
+                    }
+                }, LINGER_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Removes the Firestore listener and forgets the shared result.
+         */
+        private void tearDown() {
+            isTornDown = true;
+            if (pendingAttach != null) {
+                pendingAttach.cancel(false);
+                pendingAttach = null;
+            }
+            listenerRegistration.remove();
+            if (sharedQueries.get(description) == this) {
+                sharedQueries.remove(description);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.cslab4.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.example.cslab4.listeners.QueryObserver;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+
+import java.util.List;
+
+/**
+ * Observation of a shared QueryHub query bound to a lifecycle.
+ * The query is observed while the owner is started and released in onStop, so a
+ * screen in the background keeps nothing attached once the hub's short linger has
+ * passed. On the next onStart it is observed again from the newest document already
+ * seen, so only documents that arrived in the meantime are downloaded instead of the
+ * whole result set. After onDestroy the observation is gone for good and no further
+ * results are delivered.
+ * Must be created and bound on the main thread.
+ */
+public class SnapshotSubscription implements DefaultLifecycleObserver {
+
+    /**
+     * Builds the query to listen to, continuing after a given document.
+     */
+    public interface QueryFactory {
+        /**
+         * Without a document, the query starts at the caller's own starting point, which
+         * must only move forward between queries of the same description; see
+         * {@link QueryHub#observe}.
+         *
+         * @param after Newest document already seen, or null to start at the starting point
+         * @return Query returning only documents after the given one
+         */
+        Query createQuery(DocumentSnapshot after);
+    }
+
+    private final Lifecycle lifecycle;
+    private final String description;
+    private final QueryFactory queryFactory;
+    private final QueryObserver queryObserver;
+    private ListenerRegistration listenerRegistration;
+    // Written on the executor, read on the main thread
+    private volatile DocumentSnapshot newestSeen;
+    private volatile boolean isActive = false;
+
+    private SnapshotSubscription(Lifecycle lifecycle, String description, DocumentSnapshot after,
+                                 QueryFactory queryFactory, QueryObserver queryObserver) {
+        this.lifecycle = lifecycle;
+        this.description = description;
+        this.newestSeen = after;
+        this.queryFactory = queryFactory;
+        this.queryObserver = queryObserver;
+    }
+
+    /**
+     * Creates a subscription and binds it to a lifecycle.
+     * The query is observed right away if the owner is already started.
+     * Binding to a destroyed owner observes nothing.
+     *
+     * @param owner Lifecycle owner, usually an activity
+     * @param description Normalized description identifying the query in the QueryHub
+     * @param after Newest document already loaded, or null to start from the beginning
+     * @param queryFactory Builds the query continuing after a document
+     * @param queryObserver Observer receiving the results on the hub thread
+     * @return The bound subscription
+     */
+    public static SnapshotSubscription bind(LifecycleOwner owner, String description, DocumentSnapshot after,
+                                            QueryFactory queryFactory, QueryObserver queryObserver) {
+        SnapshotSubscription subscription = new SnapshotSubscription(owner.getLifecycle(), description, after,
+                queryFactory, queryObserver);
+        owner.getLifecycle().addObserver(subscription);
+        return subscription;
+    }
+
+    /**
+     * Returns the newest document of an ordered result that can serve as a query cursor.
+     * Documents with pending writes are skipped, since their server timestamps are not
+     * known yet and Firestore rejects them as cursors.
+     *
+     * @param documents Documents in query order
+     * @return Newest committed document, or null if there is none
+     */
+    public static DocumentSnapshot newestCommitted(List<DocumentSnapshot> documents) {
+        for (int i = documents.size() - 1; i >= 0; i--) {
+            DocumentSnapshot documentSnapshot = documents.get(i);
+            if (!documentSnapshot.getMetadata().hasPendingWrites()) {
+                return documentSnapshot;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onStart(@NonNull LifecycleOwner owner) {
+        attach();
+    }
+
+    @Override
+    public void onStop(@NonNull LifecycleOwner owner) {
+        detach();
+    }
+
+    @Override
+    public void onDestroy(@NonNull LifecycleOwner owner) {
+        detach();
+        lifecycle.removeObserver(this);
+    }
+
+    /**
+     * Observes the query from the newest document seen so far.
+     * If the hub still has a query of this description attached that starts at or
+     * before that document, the observer joins it instead.
+     */
+    private void attach() {
+        if (listenerRegistration != null) {
+            return;
+        }
+        isActive = true;
+        DocumentSnapshot after = newestSeen;
+        listenerRegistration = QueryHub.getInstance().observe(description, after, queryFactory.createQuery(after),
+                (snapshot, isInitial) -> {
+                    // Results still queued when the observation was released are dropped
+                    if (!isActive) {
+                        return;
+                    }
+                    if (snapshot != null) {
+                        DocumentSnapshot newest = newestCommitted(snapshot.getDocuments());
+                        if (newest != null) {
+                            newestSeen = newest;
+                        }
+                    }
+                    queryObserver.onQueryChanged(snapshot, isInitial);
+                });
+    }
+
+    /**
+     * Releases the observation, keeping the newest document seen for the next attach.
+     */
+    private void detach() {
+        isActive = false;
+        if (listenerRegistration != null) {
+            listenerRegistration.remove();
+            listenerRegistration = null;
+        }
+    }
+}
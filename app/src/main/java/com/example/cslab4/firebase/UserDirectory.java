@@ -0,0 +1,204 @@
+package com.example.cslab4.firebase;
+
+import android.content.Context;
+
+import com.example.cslab4.database.UserStore;
+import com.example.cslab4.models.User;
+import com.example.cslab4.utilities.AppExecutors;
+import com.example.cslab4.utilities.Constants;
+import com.example.cslab4.utilities.PreferenceManager;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental sync of the user directory into the local UserStore.
+ * User documents carry a server-assigned updatedAt time. Users are downloaded in
+ * updatedAt order, one page per call, continuing after the newest change already
+ * stored, so every sync only transfers users that changed since the previous one and
+ * an interrupted first sync resumes where it stopped.
+ * User documents written before change times existed have no updatedAt and never match
+ * that query, so the first sync instead imports the whole collection in document ID
+ * order. Its progress is kept in the preferences, so an interrupted import resumes too.
+ * The newest change at the start of the import is remembered, and the first change sync
+ * continues from there, so users changed while the import ran are not missed.
+ * Must be called on the main thread.
+ */
+public class UserDirectory {
+
+    // Users downloaded per page
+    private static final int SYNC_PAGE_SIZE = 100;
+
+    private static UserDirectory instance;
+
+    private final UserStore userStore;
+    private final PreferenceManager preferenceManager;
+    private final FirebaseFirestore database;
+    private Task<Boolean> syncInFlight;
+
+    private UserDirectory(Context context) {
+        userStore = new UserStore(context);
+        preferenceManager = new PreferenceManager(context);
+        database = FirebaseFirestore.getInstance();
+    }
+
+    /**
+     * Returns the process-wide user directory.
+     *
+     * @param context Any context; the application context is used
+     * @return Shared UserDirectory
+     */
+    public static synchronized UserDirectory getInstance(Context context) {
+        if (instance == null) {
+            instance = new UserDirectory(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Converts a Firestore timestamp to epoch microseconds, the precision Firestore stores.
+     *
+     * @param timestamp Timestamp to convert, may be null
+     * @return Epoch microseconds, or 0 for null
+     */
+    public static long toMicros(Timestamp timestamp) {
+        if (timestamp == null) {
+            return 0;
+        }
+        return timestamp.getSeconds() * 1_000_000L + timestamp.getNanoseconds() / 1_000;
+    }
+
+    /**
+     * Downloads the next page of changed users and writes it to the local store.
+     * A sync that is already running is shared instead of starting another one.
+     *
+     * @return Task resolving to true if more changed users remain to be downloaded
+     */
+    public Task<Boolean> syncNextPage() {
+        if (syncInFlight != null && !syncInFlight.isComplete()) {
+            return syncInFlight;
+        }
+        if (!preferenceManager.getBoolean(Constants.KEY_DIRECTORY_IMPORTED)) {
+            syncInFlight = importNextPage();
+            return syncInFlight;
+        }
+        syncInFlight = Tasks.call(AppExecutors.getInstance().diskIO(), this::getChangesCursor)
+                .continueWithTask(task -> changesAfter(task.getResult()).get())
+                .continueWith(AppExecutors.getInstance().diskIO(), task -> {
+                    List<DocumentSnapshot> documents = task.getResult().getDocuments();
+                    userStore.putUsers(toUsers(documents));
+                    // Pages follow each other in updatedAt order, so the store's newest change takes over
+                    preferenceManager.putString(Constants.KEY_DIRECTORY_CHANGES_SINCE, null);
+                    return documents.size() == SYNC_PAGE_SIZE;
+                });
+        return syncInFlight;
+    }
+
+    /**
+     * Returns the change to continue the change sync after: the newest change from
+     * before the import if the import just finished, otherwise the newest stored change.
+     */
+    private User getChangesCursor() {
+        String changesSince = preferenceManager.getString(Constants.KEY_DIRECTORY_CHANGES_SINCE);
+        if (changesSince == null) {
+            return userStore.getNewestChange();
+        }
+        // Without an ID, changes at exactly that time are included
+        User cursor = new User();
+        cursor.updatedAt = Long.parseLong(changesSince);
+        return cursor;
+    }
+
+    /**
+     * Creates users from a page of user documents.
+     */
+    private static List<User> toUsers(List<DocumentSnapshot> documents) {
+        List<User> users = new ArrayList<>(documents.size());
+        for (DocumentSnapshot documentSnapshot : documents) {
+            users.add(UserRepository.toUser(documentSnapshot));
+        }
+        return users;
+    }
+
+    /**
+     * Downloads the next page of the whole user collection, including users without a
+     * change time, and writes it to the local store.
+     * Once the last page is stored, later syncs only download changes.
+     *
+     * @return Task resolving to true, since changes made during the import remain to be downloaded
+     */
+    private Task<Boolean> importNextPage() {
+        Query query = database.collection(Constants.KEY_COLLECTION_USERS)
+                .orderBy(FieldPath.documentId())
+                .limit(SYNC_PAGE_SIZE);
+        String lastImportedId = preferenceManager.getString(Constants.KEY_DIRECTORY_IMPORT_CURSOR);
+        Task<Void> start;
+        if (lastImportedId != null) {
+            query = query.startAfter(lastImportedId);
+            start = Tasks.forResult(null);
+        } else {
+            start = rememberNewestChange();
+        }
+        Query page = query;
+        return start.continueWithTask(unused -> {
+            unused.getResult(); // Propagate failures
+            return page.get();
+        }).continueWith(AppExecutors.getInstance().diskIO(), task -> {
+            List<DocumentSnapshot> documents = task.getResult().getDocuments();
+            userStore.putUsers(toUsers(documents));
+            if (!documents.isEmpty()) {
+                preferenceManager.putString(Constants.KEY_DIRECTORY_IMPORT_CURSOR,
+                        documents.get(documents.size() - 1).getId());
+            }
+            if (documents.size() < SYNC_PAGE_SIZE) {
+                preferenceManager.putBoolean(Constants.KEY_DIRECTORY_IMPORTED, true);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Stores the change time of the most recently changed user before an import starts.
+     */
+    private Task<Void> rememberNewestChange() {
+        return database.collection(Constants.KEY_COLLECTION_USERS)
+                .orderBy(Constants.KEY_UPDATED_AT, Query.Direction.DESCENDING)
+                .limit(1)
+                .get()
+                .continueWith(task -> {
+                    List<DocumentSnapshot> documents = task.getResult().getDocuments();
+                    long newestChange = documents.isEmpty() ? 0
+                            : toMicros(documents.get(0).getTimestamp(Constants.KEY_UPDATED_AT));
+                    preferenceManager.putString(Constants.KEY_DIRECTORY_CHANGES_SINCE, String.valueOf(newestChange));
+                    return null;
+                });
+    }
+
+    /**
+     * Builds the query for the users changed after a stored change.
+     * Ties on updatedAt are broken by document ID, so no user is skipped or repeated.
+     * A change without a user ID starts at its time instead of after it.
+     */
+    private Query changesAfter(User newestChange) {
+        Query query = database.collection(Constants.KEY_COLLECTION_USERS)
+                .orderBy(Constants.KEY_UPDATED_AT)
+                .orderBy(FieldPath.documentId())
+                .limit(SYNC_PAGE_SIZE);
+        if (newestChange != null) {
+            long micros = newestChange.updatedAt;
+            Timestamp updatedAt = new Timestamp(Math.floorDiv(micros, 1_000_000L),
+                    (int) Math.floorMod(micros, 1_000_000L) * 1_000);
+            query = newestChange.id != null
+                    ? query.startAfter(updatedAt, newestChange.id)
+                    : query.startAt(updatedAt);
+        }
+        return query;
+    }
+}
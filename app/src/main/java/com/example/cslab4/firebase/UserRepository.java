@@ -0,0 +1,163 @@
+package com.example.cslab4.firebase;
+
+import android.content.Context;
+
+import com.example.cslab4.database.UserStore;
+import com.example.cslab4.listeners.UserLoadListener;
+import com.example.cslab4.models.User;
+import com.example.cslab4.utilities.AppExecutors;
+import com.example.cslab4.utilities.AvatarCache;
+import com.example.cslab4.utilities.Constants;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide repository of user profiles.
+ * Screens that list users put the profiles they loaded here, so other screens can be
+ * opened with just a user ID and read the profile without another network round trip.
+ * Profiles that are not in memory are read from the stored user directory, so they
+ * show up after process death and while offline, and only users the directory does
+ * not hold yet are fetched from Firestore. Concurrent requests for the same user wait
+ * for that one load.
+ * All methods must be called on the main thread.
+ */
+public class UserRepository {
+
+    private static UserRepository instance;
+
+    private final Map<String, User> users = new HashMap<>();
+    private final Map<String, List<UserLoadListener>> pendingLoads = new HashMap<>();
+    private UserStore userStore;
+
+    private UserRepository() {
+    }
+
+    /**
+     * Returns the process-wide user repository.
+     *
+     * @return Shared UserRepository
+     */
+    public static synchronized UserRepository getInstance() {
+        if (instance == null) {
+            instance = new UserRepository();
+        }
+        return instance;
+    }
+
+    /**
+     * Builds a User from a user document.
+     *
+     * @param documentSnapshot Document from the users collection
+     * @return User holding the document's profile fields; an avatar still stored inline
+     * is referenced through {@link AvatarCache#inlineImageHashOf}
+     */
+    public static User toUser(DocumentSnapshot documentSnapshot) {
+        User user = new User();
+        user.name = documentSnapshot.getString(Constants.KEY_FNAME) + " " + documentSnapshot.getString(Constants.KEY_LNAME);
+        user.email = documentSnapshot.getString(Constants.KEY_EMAIL);
+        user.imageHash = documentSnapshot.getString(Constants.KEY_IMAGE_HASH);
+        String inlineImage = documentSnapshot.getString(Constants.KEY_IMAGE);
+        if (user.imageHash == null && inlineImage != null) {
+            // Not migrated yet: the avatar is still stored on the user document itself
+            user.imageHash = AvatarCache.inlineImageHashOf(documentSnapshot.getId(), inlineImage);
+        }
+        user.token = documentSnapshot.getString(Constants.KEY_FCM_TOKEN);
+        user.id = documentSnapshot.getId();
+        user.updatedAt = UserDirectory.toMicros(documentSnapshot.getTimestamp(Constants.KEY_UPDATED_AT));
+        return user;
+    }
+
+    /**
+     * Stores or replaces a user profile.
+     *
+     * @param user Profile to store
+     */
+    public void put(User user) {
+        users.put(user.id, user);
+    }
+
+    /**
+     * Returns a stored user profile without fetching it.
+     *
+     * @param userId ID of the user
+     * @return Stored profile, or null if it is not known
+     */
+    public User get(String userId) {
+        return users.get(userId);
+    }
+
+    /**
+     * Delivers a user profile, loading it if it is not in memory yet.
+     * Profiles in memory are delivered immediately; otherwise the stored user directory
+     * is read on the disk executor, and Firestore only if the directory does not hold the user.
+     *
+     * @param context Any context; the application context is used
+     * @param userId ID of the user
+     * @param userLoadListener Listener receiving the profile
+     */
+    public void load(Context context, String userId, UserLoadListener userLoadListener) {
+        User user = users.get(userId);
+        if (user != null) {
+            userLoadListener.onUserLoaded(user);
+            return;
+        }
+        List<UserLoadListener> waiting = pendingLoads.get(userId);
+        if (waiting != null) {
+            waiting.add(userLoadListener);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(userLoadListener);
+        pendingLoads.put(userId, waiting);
+        if (userStore == null) {
+            userStore = new UserStore(context.getApplicationContext());
+        }
+        UserStore store = userStore;
+        AppExecutors.getInstance().diskIO().execute(() -> {
+            User stored = store.getUser(userId);
+            AppExecutors.getInstance().mainThread().execute(() -> {
+                if (stored != null) {
+                    deliver(userId, stored);
+                } else {
+                    fetch(userId);
+                }
+            });
+        });
+    }
+
+    /**
+     * Fetches a user profile that the stored directory does not hold yet.
+     */
+    private void fetch(String userId) {
+        FirebaseFirestore.getInstance().collection(Constants.KEY_COLLECTION_USERS)
+                .document(userId)
+                .get()
+                .addOnCompleteListener(task -> {
+                    User loaded = null;
+                    if (task.isSuccessful() && task.getResult() != null && task.getResult().exists()) {
+                        loaded = toUser(task.getResult());
+                    }
+                    deliver(userId, loaded);
+                });
+    }
+
+    /**
+     * Keeps a loaded profile and hands it to every listener waiting for it.
+     */
+    private void deliver(String userId, User loaded) {
+        if (loaded != null && !users.containsKey(userId)) {
+            users.put(userId, loaded);
+        }
+        List<UserLoadListener> listeners = pendingLoads.remove(userId);
+        if (listeners != null) {
+            for (UserLoadListener listener : listeners) {
+                listener.onUserLoaded(users.containsKey(userId) ? users.get(userId) : loaded);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.cslab4.listeners;
+
+import android.graphics.Bitmap;
+
+/**
+ * Interface for receiving decoded avatars.
+ * Implements callback pattern for asynchronous image loading.
+ */
+public interface AvatarListener {
+    /**
+     * Called on the main thread once an avatar is available.
+     *
+     * @param bitmap Decoded avatar, or null if the image could not be decoded
+     */
+    void onAvatarLoaded(Bitmap bitmap);
+}
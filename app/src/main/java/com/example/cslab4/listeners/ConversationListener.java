@@ -0,0 +1,16 @@
+package com.example.cslab4.listeners;
+
+import com.example.cslab4.models.Conversation;
+
+/**
+ * Interface for handling conversation selection events in the recent conversations list.
+ * Implements callback pattern for user interaction events.
+ */
+public interface ConversationListener {
+    /**
+     * Called when a conversation is selected from the list.
+     *
+     * @param conversation The selected Conversation object
+     */
+    void onConversationClicked(Conversation conversation);
+}
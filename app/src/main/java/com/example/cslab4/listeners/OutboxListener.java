@@ -0,0 +1,24 @@
+package com.example.cslab4.listeners;
+
+import java.util.List;
+
+/**
+ * Interface for observing messages leaving the outbox.
+ * Implements callback pattern so screens can update the pending state of their messages.
+ */
+public interface OutboxListener {
+    /**
+     * Called on the main thread when Firestore has confirmed a batch of messages.
+     *
+     * @param messageIds Document IDs of the confirmed messages
+     */
+    void onMessagesSent(List<String> messageIds);
+
+    /**
+     * Called on the main thread when Firestore has rejected messages for good.
+     * The messages stay stored as failed and are not retried.
+     *
+     * @param messageIds Document IDs of the rejected messages
+     */
+    void onMessagesFailed(List<String> messageIds);
+}
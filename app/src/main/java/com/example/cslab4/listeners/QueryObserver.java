@@ -0,0 +1,19 @@
+package com.example.cslab4.listeners;
+
+import com.google.firebase.firestore.QuerySnapshot;
+
+/**
+ * Interface for observing a query shared through the QueryHub.
+ * Implements callback pattern for real-time query results.
+ */
+public interface QueryObserver {
+    /**
+     * Called on the query hub's thread whenever the shared result changes.
+     * The first call delivers the whole current result; its document changes may be
+     * relative to an earlier snapshot, so observers should read all its documents.
+     *
+     * @param snapshot Current result of the query, or null if the query failed
+     * @param isInitial true for the first result delivered to this observer
+     */
+    void onQueryChanged(QuerySnapshot snapshot, boolean isInitial);
+}
@@ -0,0 +1,16 @@
+package com.example.cslab4.listeners;
+
+import com.example.cslab4.models.User;
+
+/**
+ * Interface for receiving user profiles from the user repository.
+ * Implements callback pattern for asynchronous profile loading.
+ */
+public interface UserLoadListener {
+    /**
+     * Called on the main thread once a user profile is available.
+     *
+     * @param user The loaded User object, or null if it could not be loaded
+     */
+    void onUserLoaded(User user);
+}
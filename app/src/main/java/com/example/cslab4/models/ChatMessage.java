@@ -1,12 +1,51 @@
 package com.example.cslab4.models;
 
-import java.util.Date;
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.Objects;
 
 /**
  * Model class representing a chat message.
  * Contains message details including sender, receiver, content, and timestamp information.
+ * The id holds the Firestore document ID and uniquely identifies the message,
+ * and the timestamp is stored as epoch milliseconds; it is only formatted at bind time.
+ * The precomputed message holds the body already measured for display,
+ * isPending marks messages that have not been confirmed by Firestore yet,
+ * and isFailed marks messages Firestore rejected, which are never retried.
+ * The view type and formatted timestamp are resolved by the chat adapter on first
+ * bind and kept, so rebinding the message allocates nothing.
+ * Equality compares the full content so list diffs can detect changed messages;
+ * the display fields are derived from it and are not compared.
  */
 public class ChatMessage {
-    public String senderId, receiverId, message, dateTime;
-    public Date dateObject;
+    public String id, senderId, receiverId, message;
+    public long timestamp;
+    public boolean isPending, isFailed;
+    public PrecomputedTextCompat precomputedMessage;
+    // Display state resolved by ChatAdapter; 0 and null until first bound
+    public int viewType;
+    public String formattedTimestamp;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ChatMessage that = (ChatMessage) o;
+        return timestamp == that.timestamp
+                && isPending == that.isPending
+                && isFailed == that.isFailed
+                && Objects.equals(id, that.id)
+                && Objects.equals(senderId, that.senderId)
+                && Objects.equals(receiverId, that.receiverId)
+                && Objects.equals(message, that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, senderId, receiverId, message, timestamp, isPending, isFailed);
+    }
 }
@@ -0,0 +1,38 @@
+package com.example.cslab4.models;
+
+import java.util.Objects;
+
+/**
+ * Model class representing the summary of a conversation with another user.
+ * Holds the other participant, the last message and the signed-in user's unread count,
+ * as stored in the denormalized conversation summary document. The other participant's
+ * avatar hash is not part of the summary; it is taken from the stored user directory.
+ */
+public class Conversation {
+    public String id, receiverId, receiverName, receiverImageHash, lastMessage, lastSenderId;
+    public long lastTimestamp, unreadCount;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Conversation that = (Conversation) o;
+        return lastTimestamp == that.lastTimestamp
+                && unreadCount == that.unreadCount
+                && Objects.equals(id, that.id)
+                && Objects.equals(receiverId, that.receiverId)
+                && Objects.equals(receiverName, that.receiverName)
+                && Objects.equals(receiverImageHash, that.receiverImageHash)
+                && Objects.equals(lastMessage, that.lastMessage)
+                && Objects.equals(lastSenderId, that.lastSenderId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, receiverId, receiverName, receiverImageHash, lastMessage, lastSenderId, lastTimestamp, unreadCount);
+    }
+}
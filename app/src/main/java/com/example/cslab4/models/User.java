@@ -1,12 +1,38 @@
 package com.example.cslab4.models;
 
-import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * Model class representing a user in the chat application.
- * Implements Serializable to support passing user objects between activities.
- * Contains user profile information including name, image, and contact details.
+ * Contains user profile information including name, avatar hash, and contact details.
+ * The avatar itself lives in the avatars collection and is loaded by its hash.
+ * Users are passed between activities by ID and looked up in the UserRepository.
  */
-public class User implements Serializable {
-    public String name, image, email, token, id;
+public class User {
+    public String name, imageHash, email, token, id;
+    // Server time of the last change to the user document, in epoch microseconds
+    // so it can serve as an exact sync cursor
+    public long updatedAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        User user = (User) o;
+        return updatedAt == user.updatedAt
+                && Objects.equals(id, user.id)
+                && Objects.equals(name, user.name)
+                && Objects.equals(email, user.email)
+                && Objects.equals(imageHash, user.imageHash)
+                && Objects.equals(token, user.token);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name, email, imageHash, token, updatedAt);
+    }
 }
@@ -0,0 +1,98 @@
+package com.example.cslab4.utilities;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Utility class that provides the executors shared across the application.
+ * Disk work runs on a single background thread so database writes are serialized,
+ * decoding of network results runs on a separate background thread that keeps
+ * results in arrival order, images are decoded on a small pool of their own so they never
+ * hold up message decoding, and results are posted back through the main thread executor.
+ */
+public class AppExecutors {
+
+    private static AppExecutors instance;
+
+    private final ExecutorService diskIO;
+    private final ExecutorService background;
+    private final ExecutorService imageDecode;
+    private final Executor mainThread;
+
+    // Number of threads decoding images in parallel
+    private static final int IMAGE_DECODE_THREADS = 2;
+
+    private AppExecutors() {
+        diskIO = Executors.newSingleThreadExecutor();
+        background = Executors.newSingleThreadExecutor();
+        imageDecode = Executors.newFixedThreadPool(IMAGE_DECODE_THREADS);
+        mainThread = new MainThreadExecutor();
+    }
+
+    /**
+     * Returns the process-wide executors instance.
+     *
+     * @return Shared AppExecutors
+     */
+    public static synchronized AppExecutors getInstance() {
+        if (instance == null) {
+            instance = new AppExecutors();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the executor used for local database and file access.
+     *
+     * @return Single-threaded disk executor
+     */
+    public Executor diskIO() {
+        return diskIO;
+    }
+
+    /**
+     * Returns the executor used to decode snapshots and other network results.
+     * Single-threaded so results are handed on in the order they arrived.
+     *
+     * @return Single-threaded background executor
+     */
+    public Executor background() {
+        return background;
+    }
+
+    /**
+     * Returns the executor used to decode images.
+     *
+     * @return Image decoding executor
+     */
+    public Executor imageDecode() {
+        return imageDecode;
+    }
+
+    /**
+     * Returns an executor that runs tasks on the main thread.
+     *
+     * @return Main thread executor
+     */
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    /**
+     * Executor that posts tasks to the main looper.
+     */
+    private static class MainThreadExecutor implements Executor {
+        private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mainThreadHandler.post(command);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.cslab4.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.cslab4.listeners.AvatarListener;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Process-wide, memory-bounded cache of decoded user avatars.
+ * Avatars are stored apart from user documents in the avatars collection and are
+ * addressed by a hash of the encoded image, so a changed image is fetched and decoded
+ * again while an unchanged one is decoded at most once per process.
+ * Each avatar comes in size variants, and callers request the variant matching the
+ * surface they draw on, so small rows never download or decode the large image.
+ * Loading runs in the background; requests for an avatar that is already loading
+ * wait for that load instead of starting another one. On a memory miss the
+ * requested variant is read from the on-disk cache, and only if it is missing there
+ * is the avatar document fetched from Firestore. Since avatars are requested at bind
+ * time, only the rows that are actually visible ever download their image.
+ * All public methods must be called on the main thread.
+ */
+public class AvatarCache {
+
+    // Prefix of image hashes that refer to an avatar stored inline on a user document
+    private static final String INLINE_IMAGE_PREFIX = "user_";
+
+    private static AvatarCache instance;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final Map<String, List<AvatarListener>> pendingLoads = new HashMap<>();
+    // Cache keys by variant and image hash, so binding a row does not build a new key
+    private final Map<String, Map<String, String>> keys = new HashMap<>();
+    private final AvatarDiskCache diskCache;
+    private final FirebaseFirestore database;
+
+    private AvatarCache(Context context) {
+        diskCache = new AvatarDiskCache(context);
+        database = FirebaseFirestore.getInstance();
+        // Use an eighth of the available heap, measured in bitmap bytes
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the process-wide avatar cache.
+     *
+     * @param context Any context; the application context is used
+     * @return Shared AvatarCache
+     */
+    public static synchronized AvatarCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new AvatarCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the image hash referring to an avatar that is still stored inline on a
+     * user document, because the avatar migration has not run for it yet.
+     * The reference carries the user ID, so the image can be fetched from the user
+     * document, and the content hash, so a changed image is not served from the cache.
+     * Neither Firestore IDs nor content hashes contain underscores.
+     * This fallback goes away once the {@link com.example.cslab4.firebase.AvatarMigrator}
+     * has run; the README lists the steps.
+     *
+     * @param userId ID of the user document
+     * @param encodedImage Base64 encoded image stored on the user document
+     * @return Image hash to store on the User
+     */
+    public static String inlineImageHashOf(String userId, String encodedImage) {
+        return INLINE_IMAGE_PREFIX + userId + "_" + AvatarDiskCache.hashOf(encodedImage);
+    }
+
+    /**
+     * Shows an avatar variant in an ImageView.
+     * A cached avatar is set immediately; otherwise the view is cleared and bound
+     * when loading finishes, unless it has been rebound to another avatar meanwhile.
+     * Nothing happens if the view already shows the requested avatar.
+     *
+     * @param imageView View to show the avatar in
+     * @param imageHash Content hash of the avatar, as stored on the user document
+     * @param variant Constants.KEY_AVATAR_THUMBNAIL or Constants.KEY_AVATAR_PROFILE
+     */
+    public void loadInto(ImageView imageView, String imageHash, String variant) {
+        String key = imageHash == null ? null : keyOf(imageHash, variant);
+        if (key != null && key == imageView.getTag() && imageView.getDrawable() != null) {
+            return;
+        }
+        imageView.setTag(key);
+        if (key == null) {
+            imageView.setImageDrawable(null);
+            return;
+        }
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            imageView.setImageBitmap(cached);
+            return;
+        }
+        imageView.setImageDrawable(null);
+        load(imageHash, variant, bitmap -> {
+            if (bitmap != null && key.equals(imageView.getTag())) {
+                imageView.setImageBitmap(bitmap);
+            }
+        });
+    }
+
+    /**
+     * Delivers a decoded avatar variant to a listener.
+     * Cached avatars are delivered immediately.
+     *
+     * @param imageHash Content hash of the avatar, as stored on the user document
+     * @param variant Constants.KEY_AVATAR_THUMBNAIL or Constants.KEY_AVATAR_PROFILE
+     * @param avatarListener Listener receiving the decoded avatar
+     */
+    public void load(String imageHash, String variant, AvatarListener avatarListener) {
+        if (imageHash == null) {
+            avatarListener.onAvatarLoaded(null);
+            return;
+        }
+        String key = keyOf(imageHash, variant);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            avatarListener.onAvatarLoaded(cached);
+            return;
+        }
+        List<AvatarListener> waiting = pendingLoads.get(key);
+        if (waiting != null) {
+            waiting.add(avatarListener);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(avatarListener);
+        pendingLoads.put(key, waiting);
+        AppExecutors.getInstance().imageDecode().execute(() -> {
+            Bitmap bitmap = diskCache.get(key);
+            if (bitmap != null) {
+                deliver(key, bitmap);
+            } else {
+                fetch(imageHash, variant, key);
+            }
+        });
+    }
+
+    /**
+     * Returns the key of an avatar variant in the memory and disk caches.
+     * Keys are built once and then reused, so repeated lookups allocate nothing.
+     */
+    private String keyOf(String imageHash, String variant) {
+        Map<String, String> variantKeys = keys.get(variant);
+        if (variantKeys == null) {
+            variantKeys = new HashMap<>();
+            keys.put(variant, variantKeys);
+        }
+        String key = variantKeys.get(imageHash);
+        if (key == null) {
+            key = imageHash + "_" + variant;
+            variantKeys.put(imageHash, key);
+        }
+        return key;
+    }
+
+    /**
+     * Downloads an avatar variant, then decodes, downsizes and stores it on disk.
+     * Avatars stored before variants existed have a single image on the avatar document
+     * itself, which is used when the variant is missing. Avatars that were never migrated
+     * are read from their user document.
+     * Runs its continuations on the image decoding executor.
+     */
+    private void fetch(String imageHash, String variant, String key) {
+        Executor imageDecode = AppExecutors.getInstance().imageDecode();
+        if (imageHash.startsWith(INLINE_IMAGE_PREFIX)) {
+            String userId = imageHash.substring(INLINE_IMAGE_PREFIX.length(), imageHash.lastIndexOf('_'));
+            database.collection(Constants.KEY_COLLECTION_USERS)
+                    .document(userId)
+                    .get()
+                    .addOnCompleteListener(imageDecode, task -> {
+                        Bitmap bitmap = null;
+                        if (task.isSuccessful() && task.getResult() != null) {
+                            bitmap = decode(task.getResult().getString(Constants.KEY_IMAGE));
+                        }
+                        store(key, variant, bitmap);
+                    });
+            return;
+        }
+        DocumentReference avatarReference = database.collection(Constants.KEY_COLLECTION_AVATARS)
+                .document(imageHash);
+        avatarReference.collection(Constants.KEY_COLLECTION_AVATAR_VARIANTS)
+                .document(variant)
+                .get()
+                .addOnCompleteListener(imageDecode, task -> {
+                    if (task.isSuccessful() && task.getResult() != null && task.getResult().exists()) {
+                        store(key, variant, decode(task.getResult().getString(Constants.KEY_IMAGE)));
+                        return;
+                    }
+                    avatarReference.get().addOnCompleteListener(imageDecode, legacyTask -> {
+                        Bitmap bitmap = null;
+                        if (legacyTask.isSuccessful() && legacyTask.getResult() != null) {
+                            bitmap = decode(legacyTask.getResult().getString(Constants.KEY_IMAGE));
+                        }
+                        store(key, variant, bitmap);
+                    });
+                });
+    }
+
+    /**
+     * Downsizes a downloaded avatar to its variant size, writes it to disk and delivers it.
+     */
+    private void store(String key, String variant, Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap = AvatarEncoder.scaleDown(bitmap, AvatarEncoder.sizeOf(variant));
+            diskCache.put(key, bitmap);
+        }
+        deliver(key, bitmap);
+    }
+
+    /**
+     * Hands a finished load to the main thread, stores it and notifies everyone waiting for it.
+     */
+    private void deliver(String key, Bitmap bitmap) {
+        AppExecutors.getInstance().mainThread().execute(() -> {
+            if (bitmap != null) {
+                memoryCache.put(key, bitmap);
+            }
+            List<AvatarListener> waiting = pendingLoads.remove(key);
+            if (waiting != null) {
+                for (AvatarListener avatarListener : waiting) {
+                    avatarListener.onAvatarLoaded(bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * Converts a Base64 encoded image string to a Bitmap.
+     * Handles null and invalid encoded strings safely.
+     *
+     * @param encodedImage Base64 encoded string of the image
+     * @return Bitmap of the decoded image, or null if conversion fails
+     */
+    private static Bitmap decode(String encodedImage) {
+        if (encodedImage == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
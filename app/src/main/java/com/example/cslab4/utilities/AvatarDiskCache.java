@@ -0,0 +1,167 @@
+package com.example.cslab4.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Content-addressed on-disk cache of decoded, display-sized avatars.
+ * Files are named after the SHA-256 hash of the encoded image that also addresses the
+ * avatar in Firestore, followed by the variant name, so an unchanged image always maps to the same file and a changed
+ * image never reuses a stale one.
+ * The cache is capped in size and evicts the least recently used files first.
+ * Avatars are written to a temporary file and renamed into place; temporary files
+ * are never counted or evicted, since another thread may still be writing them, and
+ * the ones left behind by an earlier process are deleted on first use.
+ * All methods perform disk access and must be called off the main thread.
+ */
+public class AvatarDiskCache {
+
+    private static final String TAG = "AvatarDiskCache";
+    private static final String DIRECTORY_NAME = "avatars";
+    private static final long MAX_SIZE_BYTES = 10L * 1024 * 1024;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File directory;
+    // Temporary files older than the cache itself were left behind by an earlier process
+    private final long openedAt = System.currentTimeMillis();
+    private boolean hasDeletedStaleFiles = false;
+
+    /**
+     * Constructs a new AvatarDiskCache in the application's cache directory.
+     *
+     * @param context Any context; the application context is used
+     */
+    public AvatarDiskCache(Context context) {
+        directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Returns the content hash used to address an encoded image.
+     *
+     * @param encodedImage Base64 encoded image
+     * @return Hex encoded SHA-256 hash of the encoded image
+     */
+    public static String hashOf(String encodedImage) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(encodedImage.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android runtime provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a cached avatar and marks it as recently used.
+     *
+     * @param hash Content hash of the encoded image, followed by the variant name
+     * @return Decoded avatar, or null if it is not cached
+     */
+    public Bitmap get(String hash) {
+        deleteStaleTemporaryFiles();
+        File file = new File(directory, hash);
+        if (!file.exists()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            // Drop files that were only partially written
+            file.delete();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /**
+     * Writes an avatar to the cache, then evicts old files if the cache is over its size cap.
+     *
+     * @param hash Content hash of the encoded image, followed by the variant name
+     * @param bitmap Display-sized avatar
+     */
+    public void put(String hash, Bitmap bitmap) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        deleteStaleTemporaryFiles();
+        File file = new File(directory, hash);
+        File temporaryFile = new File(directory, hash + TEMPORARY_SUFFIX);
+        try (FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+            // PNG is lossless, so the quality argument is ignored
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to cache avatar", e);
+            temporaryFile.delete();
+            return;
+        }
+        // Rename so readers never see a partially written file
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            return;
+        }
+        trimToSize();
+    }
+
+    /**
+     * Deletes the temporary files of writes that never finished, once per process.
+     * Writes started by this process are newer than the cache and are left alone.
+     */
+    private synchronized void deleteStaleTemporaryFiles() {
+        if (hasDeletedStaleFiles) {
+            return;
+        }
+        hasDeletedStaleFiles = true;
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(TEMPORARY_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.lastModified() < openedAt) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes least recently used avatars until the cache fits its size cap.
+     * Temporary files are skipped, since they may still be in the middle of a write.
+     */
+    private void trimToSize() {
+        File[] files = directory.listFiles((dir, name) -> !name.endsWith(TEMPORARY_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long totalSize = 0;
+        for (File file : files) {
+            totalSize += file.length();
+        }
+        if (totalSize <= MAX_SIZE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (first, second) -> Long.compare(first.lastModified(), second.lastModified()));
+        for (File file : files) {
+            if (totalSize <= MAX_SIZE_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                totalSize -= length;
+            }
+        }
+    }
+}
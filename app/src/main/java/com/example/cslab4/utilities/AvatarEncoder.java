@@ -0,0 +1,83 @@
+package com.example.cslab4.utilities;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Utility class that encodes avatars into the size variants stored in Firestore.
+ * Every screen requests only the variant it needs: the thumbnail for list rows,
+ * chat bubbles and the toolbar, and the profile variant for larger surfaces.
+ * Variants are encoded as WebP, which is smaller than JPEG at the same quality.
+ */
+public class AvatarEncoder {
+
+    // Largest edge of each variant, in pixels
+    public static final int THUMBNAIL_SIZE_PX = 112;
+    public static final int PROFILE_SIZE_PX = 512;
+
+    private static final int THUMBNAIL_QUALITY = 70;
+    private static final int PROFILE_QUALITY = 80;
+
+    private AvatarEncoder() {
+    }
+
+    /**
+     * Returns the largest edge, in pixels, of an avatar variant.
+     *
+     * @param variant Constants.KEY_AVATAR_THUMBNAIL or Constants.KEY_AVATAR_PROFILE
+     * @return Size of the variant's largest edge
+     */
+    public static int sizeOf(String variant) {
+        return Constants.KEY_AVATAR_PROFILE.equals(variant) ? PROFILE_SIZE_PX : THUMBNAIL_SIZE_PX;
+    }
+
+    /**
+     * Encodes every avatar variant of an image.
+     *
+     * @param bitmap Source image, at least as large as the profile variant for best results
+     * @return Base64 encoded variants keyed by variant name
+     */
+    public static Map<String, String> encodeVariants(Bitmap bitmap) {
+        Map<String, String> variants = new LinkedHashMap<>();
+        variants.put(Constants.KEY_AVATAR_THUMBNAIL, encode(scaleDown(bitmap, THUMBNAIL_SIZE_PX), THUMBNAIL_QUALITY));
+        variants.put(Constants.KEY_AVATAR_PROFILE, encode(scaleDown(bitmap, PROFILE_SIZE_PX), PROFILE_QUALITY));
+        return variants;
+    }
+
+    /**
+     * Scales a bitmap down so its largest edge is at most the given size.
+     *
+     * @param bitmap Bitmap to scale
+     * @param maxEdgePx Largest allowed edge, in pixels
+     * @return Scaled bitmap, or the original if it is already small enough
+     */
+    public static Bitmap scaleDown(Bitmap bitmap, int maxEdgePx) {
+        int largestEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (largestEdge <= maxEdgePx) {
+            return bitmap;
+        }
+        float scale = (float) maxEdgePx / largestEdge;
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+    }
+
+    /**
+     * Compresses a bitmap to lossy WebP and encodes it as Base64.
+     */
+    @SuppressWarnings("deprecation")
+    private static String encode(Bitmap bitmap, int quality) {
+        // WEBP_LOSSY replaces the deprecated WEBP format from API 30
+        Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.WEBP;
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        bitmap.compress(format, quality, byteArrayOutputStream);
+        return Base64.encodeToString(byteArrayOutputStream.toByteArray(), Base64.DEFAULT);
+    }
+}
@@ -8,6 +8,7 @@ package com.example.cslab4.utilities;
  * - Authentication states
  * - Shared preferences
  * - Chat message fields
+ * - Conversation summary fields
  */
 public class Constants {
     // Firebase collection name for user data
@@ -21,6 +22,21 @@ public class Constants {
     public static final String KEY_PASSWORD = "password";
     public static final String KEY_USER_ID = "userid";
     public static final String KEY_IMAGE = "image";
+    public static final String KEY_IMAGE_HASH = "imageHash";
+    // Server time of the last change to a user document
+    public static final String KEY_UPDATED_AT = "updatedAt";
+
+    // Preference keys tracking the first full import of the user directory
+    public static final String KEY_DIRECTORY_IMPORTED = "directoryImported";
+    public static final String KEY_DIRECTORY_IMPORT_CURSOR = "directoryImportCursor";
+    public static final String KEY_DIRECTORY_CHANGES_SINCE = "directoryChangesSince";
+
+    // Firebase collection holding avatars, keyed by image hash
+    public static final String KEY_COLLECTION_AVATARS = "avatars";
+    // Subcollection of an avatar holding its size variants
+    public static final String KEY_COLLECTION_AVATAR_VARIANTS = "variants";
+    public static final String KEY_AVATAR_THUMBNAIL = "thumbnail";
+    public static final String KEY_AVATAR_PROFILE = "profile";
 
     // Authentication and session management keys
     public static final String KEY_IS_SIGNED_IN = "isSignedIn";
@@ -29,14 +45,29 @@ public class Constants {
     // Firebase Cloud Messaging token key
     public static final String KEY_FCM_TOKEN = "fcmToken";
 
-    // Key for passing User object between activities
-    public static final String KEY_USER = "user";
-
-    // Firebase collection and field names for chat messages
+    // Legacy flat Firebase collection of chat messages, and message field names
     public static final String KEY_COLLECTION_CHAT = "chat";
     public static final String KEY_SENDER_ID = "senderId";
+    public static final String KEY_SENDER_NAME = "senderName";
     public static final String KEY_RECEIVER_ID = "receiverId";
     public static final String KEY_MESSAGE = "message";
     public static final String KEY_TIMESTAMP = "timeStamp";
+    // Data payload key of a push notification carrying a message's document ID
+    public static final String KEY_MESSAGE_ID = "messageId";
+    // Intent extra naming the conversation of a dismissed notification
+    public static final String KEY_CONVERSATION_ID = "conversationId";
+
+    // Firebase collection and field names for conversation summaries
+    public static final String KEY_COLLECTION_CONVERSATIONS = "conversations";
+    public static final String KEY_PARTICIPANTS = "participants";
+    public static final String KEY_PARTICIPANT_NAMES = "participantNames";
+    public static final String KEY_LAST_MESSAGE = "lastMessage";
+    public static final String KEY_LAST_SENDER_ID = "lastSenderId";
+    public static final String KEY_LAST_TIMESTAMP = "lastTimestamp";
+    public static final String KEY_UNREAD_COUNT = "unreadCount";
+    // Newest message of each sender already applied to the summary, so a replayed batch is not counted twice
+    public static final String KEY_LAST_MESSAGE_IDS = "lastMessageIds";
+    // Subcollection of a conversation holding its messages
+    public static final String KEY_COLLECTION_MESSAGES = "messages";
 }
 
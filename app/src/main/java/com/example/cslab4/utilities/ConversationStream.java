@@ -0,0 +1,191 @@
+package com.example.cslab4.utilities;
+
+import com.example.cslab4.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility class that keeps the messages of a conversation in a single
+ * timestamp-ordered sequence, regardless of which direction they were sent in.
+ * New messages are placed with a binary search instead of re-sorting the whole list,
+ * and messages already seen are ignored based on their Firestore document ID.
+ * An index from document ID to message lets edits, deletions and resolved server
+ * timestamps find their position in O(log n) without scanning the list.
+ * Readers receive immutable snapshots that can be handed to a list differ.
+ */
+public class ConversationStream {
+
+    private final List<ChatMessage> chatMessages = new ArrayList<>();
+    private final Map<String, ChatMessage> messagesById = new HashMap<>();
+
+    /**
+     * Inserts a message at its ordered position.
+     * Messages whose document ID is already present are skipped.
+     *
+     * @param chatMessage Message to insert
+     * @return Position the message was inserted at, or -1 if it was a duplicate
+     */
+    public int add(ChatMessage chatMessage) {
+        if (messagesById.containsKey(chatMessage.id)) {
+            return -1;
+        }
+        messagesById.put(chatMessage.id, chatMessage);
+        int position = insertionPoint(chatMessage);
+        chatMessages.add(position, chatMessage);
+        return position;
+    }
+
+    /**
+     * Inserts a message, or replaces the message with the same document ID.
+     * A replacement whose timestamp changed, for example once a server timestamp
+     * has been resolved, is moved to its new ordered position.
+     *
+     * @param chatMessage New or updated message
+     * @return Position of the message after the update
+     */
+    public int update(ChatMessage chatMessage) {
+        ChatMessage current = messagesById.get(chatMessage.id);
+        if (current == null) {
+            return add(chatMessage);
+        }
+        int position = positionOf(current);
+        if (current.timestamp == chatMessage.timestamp) {
+            chatMessages.set(position, chatMessage);
+            messagesById.put(chatMessage.id, chatMessage);
+            return position;
+        }
+        chatMessages.remove(position);
+        messagesById.remove(chatMessage.id);
+        return add(chatMessage);
+    }
+
+    /**
+     * Removes the message with the given document ID.
+     *
+     * @param messageId Firestore document ID
+     * @return Position the message was removed from, or -1 if it is unknown
+     */
+    public int remove(String messageId) {
+        ChatMessage current = messagesById.remove(messageId);
+        if (current == null) {
+            return -1;
+        }
+        int position = positionOf(current);
+        chatMessages.remove(position);
+        return position;
+    }
+
+    /**
+     * Removes the confirmed messages older than the given timestamp, keeping pending
+     * and failed ones.
+     * Used when stored history turned out not to be contiguous with a newer page.
+     *
+     * @param timestamp Exclusive upper bound in epoch milliseconds
+     * @return Number of messages removed
+     */
+    public int removeBefore(long timestamp) {
+        int kept = 0;
+        int end = 0;
+        // Messages are ordered by timestamp, so the affected ones form a prefix
+        while (end < chatMessages.size() && chatMessages.get(end).timestamp < timestamp) {
+            ChatMessage chatMessage = chatMessages.get(end);
+            if (chatMessage.isPending || chatMessage.isFailed) {
+                chatMessages.set(kept++, chatMessage);
+            } else {
+                messagesById.remove(chatMessage.id);
+            }
+            end++;
+        }
+        chatMessages.subList(kept, end).clear();
+        return end - kept;
+    }
+
+    /**
+     * Returns the message with the given document ID.
+     *
+     * @param messageId Firestore document ID
+     * @return Message, or null if it is not part of the conversation
+     */
+    public ChatMessage get(String messageId) {
+        return messagesById.get(messageId);
+    }
+
+    /**
+     * Returns an immutable copy of the current ordered messages.
+     * Later changes to the stream do not affect a returned snapshot,
+     * so it is safe to diff on a background thread.
+     *
+     * @return Ordered snapshot of the conversation
+     */
+    public List<ChatMessage> getMessages() {
+        return Collections.unmodifiableList(new ArrayList<>(chatMessages));
+    }
+
+    /**
+     * Returns the oldest message in the conversation.
+     *
+     * @return Oldest message, or null if the conversation is empty
+     */
+    public ChatMessage getOldestMessage() {
+        return chatMessages.isEmpty() ? null : chatMessages.get(0);
+    }
+
+    /**
+     * Returns the number of messages in the conversation.
+     *
+     * @return Message count
+     */
+    public int size() {
+        return chatMessages.size();
+    }
+
+    /**
+     * Locates a message that is part of the stream with a binary search.
+     * Timestamp and document ID together are unique, so the message sits
+     * directly before its own insertion point.
+     */
+    private int positionOf(ChatMessage chatMessage) {
+        return insertionPoint(chatMessage) - 1;
+    }
+
+    /**
+     * Finds the position after every message that sorts before or equal to the given one.
+     * Messages arriving in order are therefore appended in constant time.
+     *
+     * @param chatMessage Message to place
+     * @return Insertion position within the backing list
+     */
+    private int insertionPoint(ChatMessage chatMessage) {
+        int size = chatMessages.size();
+        if (size == 0 || compare(chatMessages.get(size - 1), chatMessage) <= 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(chatMessages.get(mid), chatMessage) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Orders messages by timestamp, using the document ID to break ties
+     * so the order is stable across devices.
+     */
+    private static int compare(ChatMessage first, ChatMessage second) {
+        int result = Long.compare(first.timestamp, second.timestamp);
+        if (result != 0) {
+            return result;
+        }
+        return first.id.compareTo(second.id);
+    }
+}
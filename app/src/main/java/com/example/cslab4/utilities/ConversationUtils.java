@@ -0,0 +1,43 @@
+package com.example.cslab4.utilities;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Utility class for identifying conversations between two users.
+ */
+public class ConversationUtils {
+
+    private ConversationUtils() {
+    }
+
+    /**
+     * Returns the deterministic ID of the conversation between two users.
+     * Both participants derive the same ID regardless of who sent the message.
+     *
+     * @param firstUserId ID of one participant
+     * @param secondUserId ID of the other participant
+     * @return Conversation ID built from the sorted pair of user IDs
+     */
+    public static String getConversationId(String firstUserId, String secondUserId) {
+        if (firstUserId.compareTo(secondUserId) <= 0) {
+            return firstUserId + "_" + secondUserId;
+        }
+        return secondUserId + "_" + firstUserId;
+    }
+
+    /**
+     * Returns the participants of the conversation between two users
+     * in the same sorted order used for the conversation ID.
+     *
+     * @param firstUserId ID of one participant
+     * @param secondUserId ID of the other participant
+     * @return Sorted list of both user IDs
+     */
+    public static List<String> getParticipants(String firstUserId, String secondUserId) {
+        if (firstUserId.compareTo(secondUserId) <= 0) {
+            return Arrays.asList(firstUserId, secondUserId);
+        }
+        return Arrays.asList(secondUserId, firstUserId);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.cslab4.utilities;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Utility class that reads picked images at the size they are needed.
+ * The image bounds are read first, so the decoder can subsample the source straight
+ * to near the target size; peak memory is bounded by the target size instead of by the
+ * resolution of the source photo. The EXIF orientation is applied in the same pass that
+ * scales the image to its final size.
+ * All methods perform I/O and decoding and must be called off the main thread.
+ */
+public class ImageIntake {
+
+    private ImageIntake() {
+    }
+
+    /**
+     * Decodes an image so its largest edge is at most the given size, upright.
+     *
+     * @param contentResolver Resolver used to open the image
+     * @param imageUri Content URI of the image
+     * @param maxEdgePx Largest allowed edge of the result, in pixels
+     * @return Decoded image, or null if it could not be read
+     * @throws IOException If the image cannot be opened
+     */
+    public static Bitmap decode(ContentResolver contentResolver, Uri imageUri, int maxEdgePx) throws IOException {
+        // Read only the bounds first
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream inputStream = contentResolver.openInputStream(imageUri)) {
+            BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Subsample to the smallest power of two that stays at or above the target size
+        options.inSampleSize = sampleSizeFor(Math.max(options.outWidth, options.outHeight), maxEdgePx);
+        options.inJustDecodeBounds = false;
+        Bitmap sampled;
+        try (InputStream inputStream = contentResolver.openInputStream(imageUri)) {
+            sampled = BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+
+        int orientation;
+        try (InputStream inputStream = contentResolver.openInputStream(imageUri)) {
+            orientation = new ExifInterface(inputStream)
+                    .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            // Images without readable EXIF data are shown as stored
+            orientation = ExifInterface.ORIENTATION_NORMAL;
+        }
+        return orient(sampled, orientation, maxEdgePx);
+    }
+
+    /**
+     * Returns the largest power of two that keeps the sampled edge at or above the target.
+     */
+    private static int sampleSizeFor(int largestEdge, int maxEdgePx) {
+        int sampleSize = 1;
+        while (largestEdge / (sampleSize * 2) >= maxEdgePx) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scales a sampled image to the target size and applies its EXIF orientation in one pass.
+     */
+    private static Bitmap orient(Bitmap bitmap, int orientation, int maxEdgePx) {
+        Matrix matrix = new Matrix();
+        int largestEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (largestEdge > maxEdgePx) {
+            float scale = (float) maxEdgePx / largestEdge;
+            matrix.postScale(scale, scale);
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                break;
+        }
+        if (matrix.isIdentity()) {
+            return bitmap;
+        }
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (oriented != bitmap) {
+            bitmap.recycle();
+        }
+        return oriented;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.cslab4.utilities;
+
+import android.util.LruCache;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Utility class that turns message timestamps into readable strings at bind time.
+ * Reuses one formatter per locale and time zone, and memoizes results per minute
+ * since the displayed pattern has minute resolution.
+ */
+public class MessageTimeFormatter {
+
+    private static final String PATTERN = "MMM dd, yyyy - hh:mm a";
+    private static final long MINUTE_MILLIS = 60_000L;
+    private static final int CACHE_SIZE = 256;
+
+    private static final LruCache<Long, String> formattedMinutes = new LruCache<>(CACHE_SIZE);
+    private static SimpleDateFormat dateFormat;
+    private static Locale formatLocale;
+    private static TimeZone formatTimeZone;
+
+    private MessageTimeFormatter() {
+    }
+
+    /**
+     * Formats a timestamp into the pattern "MMM dd, yyyy - hh:mm a".
+     * The formatter and cached strings are rebuilt if the locale or time zone changed.
+     *
+     * @param timestamp Epoch milliseconds
+     * @return Readable date and time
+     */
+    public static synchronized String format(long timestamp) {
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = TimeZone.getDefault();
+        if (dateFormat == null || !locale.equals(formatLocale) || !timeZone.equals(formatTimeZone)) {
+            dateFormat = new SimpleDateFormat(PATTERN, locale);
+            dateFormat.setTimeZone(timeZone);
+            formatLocale = locale;
+            formatTimeZone = timeZone;
+            formattedMinutes.evictAll();
+        }
+        Long minute = Math.floorDiv(timestamp, MINUTE_MILLIS);
+        String formatted = formattedMinutes.get(minute);
+        if (formatted == null) {
+            formatted = dateFormat.format(new Date(timestamp));
+            formattedMinutes.put(minute, formatted);
+        }
+        return formatted;
+    }
+}
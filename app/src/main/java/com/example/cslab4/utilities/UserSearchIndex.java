@@ -0,0 +1,152 @@
+package com.example.cslab4.utilities;
+
+import com.example.cslab4.models.User;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable in-memory prefix index over the user directory.
+ * Every word of a user's name and email is normalized to
+ * lower case without accents and stored in one sorted array. A lookup binary-searches
+ * the array for each query word and scans only the keys sharing that prefix, so it
+ * costs a few dozen comparisons even for tens of thousands of users.
+ * Instances are built off the main thread and may then be queried from any thread.
+ */
+public class UserSearchIndex {
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[\\s@._+-]+");
+
+    private final List<User> users;
+    // Sorted keys, and for each key the position of its user in users
+    private final String[] keys;
+    private final int[] userPositions;
+
+    /**
+     * Builds an index over a list of users.
+     *
+     * @param users Users to index, in the order search results should keep
+     */
+    public UserSearchIndex(List<User> users) {
+        this.users = new ArrayList<>(users);
+        List<Entry> entries = new ArrayList<>(users.size() * 4);
+        for (int position = 0; position < users.size(); position++) {
+            User user = users.get(position);
+            addWords(entries, user.name, position);
+            addWords(entries, user.email, position);
+        }
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, (a, b) -> a.key.compareTo(b.key));
+        keys = new String[sorted.length];
+        userPositions = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].key;
+            userPositions[i] = sorted[i].userPosition;
+        }
+    }
+
+    /**
+     * Returns the users matching a query.
+     * Every word of the query must be the prefix of a word of the user's name or email.
+     *
+     * @param query Text typed by the user
+     * @return Matching users in index order; all users for a blank query
+     */
+    public List<User> search(String query) {
+        String[] words = WORD_SEPARATORS.split(normalize(query).trim());
+        BitSet matches = null;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            BitSet wordMatches = matchesOf(word);
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        if (matches == null) {
+            return new ArrayList<>(users);
+        }
+        List<User> results = new ArrayList<>(matches.cardinality());
+        for (int position = matches.nextSetBit(0); position >= 0; position = matches.nextSetBit(position + 1)) {
+            results.add(users.get(position));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the positions of the users with a key starting with the given prefix.
+     */
+    private BitSet matchesOf(String prefix) {
+        BitSet matches = new BitSet(users.size());
+        for (int index = lowerBound(prefix); index < keys.length && keys[index].startsWith(prefix); index++) {
+            matches.set(userPositions[index]);
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the position of the first key not smaller than the given one.
+     * Unlike Arrays.binarySearch, this finds the first of several equal keys,
+     * so repeated words such as a shared email domain are all matched.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds one key per word of a text.
+     */
+    private static void addWords(List<Entry> entries, String text, int position) {
+        if (text == null) {
+            return;
+        }
+        for (String word : WORD_SEPARATORS.split(normalize(text))) {
+            if (!word.isEmpty()) {
+                entries.add(new Entry(word, position));
+            }
+        }
+    }
+
+    /**
+     * Lower-cases a text and strips accents, so "Zoë" and "zoe" match.
+     */
+    private static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return ACCENTS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Key and user position pair used while building the index.
+     */
+    private static class Entry {
+        final String key;
+        final int userPosition;
+
+        Entry(String key, int userPosition) {
+            this.key = key;
+            this.userPosition = userPosition;
+        }
+    }
+}
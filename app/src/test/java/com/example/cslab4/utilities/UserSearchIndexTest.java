@@ -0,0 +1,64 @@
+package com.example.cslab4.utilities;
+
+import com.example.cslab4.models.User;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for the user search index.
+ * Many users share words such as a first name or an email domain, so the index holds
+ * runs of equal keys; every user in such a run has to be found.
+ */
+public class UserSearchIndexTest {
+
+    @Test
+    public void search_repeatedWord_matchesEveryUser() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            users.add(user("id" + i, "John Doe" + i, "john" + i + "@example.com"));
+        }
+        UserSearchIndex index = new UserSearchIndex(users);
+
+        assertEquals(users, index.search("john"));
+        assertEquals(users, index.search("example"));
+        assertEquals(users, index.search("com"));
+        assertEquals(users, index.search("exa co"));
+    }
+
+    @Test
+    public void search_duplicateWordsWithOtherKeys_keepsIndexOrder() {
+        User ann = user("a", "Ann Smith", "ann@example.com");
+        User bob = user("b", "Bob Smith", "bob@example.org");
+        User cat = user("c", "Cat Jones", "cat@example.com");
+        User dan = user("d", "Dan Smith", "dan@mail.com");
+        UserSearchIndex index = new UserSearchIndex(Arrays.asList(ann, bob, cat, dan));
+
+        assertEquals(Arrays.asList(ann, bob, dan), index.search("smith"));
+        assertEquals(Arrays.asList(ann, bob, cat), index.search("example"));
+        assertEquals(Arrays.asList(ann, cat), index.search("example com"));
+        assertEquals(Arrays.asList(ann, bob, cat, dan), index.search("  "));
+        assertEquals(new ArrayList<User>(), index.search("zed"));
+    }
+
+    @Test
+    public void search_ignoresCaseAndAccents() {
+        User zoe = user("z", "Zo\u00eb \u00c9mile", "zoe@example.com");
+        UserSearchIndex index = new UserSearchIndex(Arrays.asList(zoe, user("y", "Yan", "yan@example.com")));
+
+        assertEquals(Arrays.asList(zoe), index.search("ZOE emi"));
+    }
+
+    private static User user(String id, String name, String email) {
+        User user = new User();
+        user.id = id;
+        user.name = name;
+        user.email = email;
+        return user;
+    }
+}